@@ -0,0 +1,28 @@
+package com.social100.todero;
+
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.WebSocketListener;
+import org.java_websocket.drafts.Draft_6455;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/** WebSocket that swallows outbound frames, so benchmarks measure everything up to the socket. */
+public class BenchWebSocket extends WebSocketImpl {
+
+  volatile Object last; // keeps the frame reachable so it isn't optimized away
+
+  public BenchWebSocket(WebSocketListener listener) {
+    super(listener, new Draft_6455());
+  }
+
+  @Override public void send(String text)       { last = text; }
+  @Override public void send(ByteBuffer bytes)  { last = bytes; }
+  @Override public boolean isOpen()             { return true; }
+  @Override public void close(int code, String message) { }
+
+  @Override
+  public InetSocketAddress getRemoteSocketAddress() {
+    return InetSocketAddress.createUnresolved("bench", 0);
+  }
+}
@@ -0,0 +1,40 @@
+package com.social100.todero;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bridge's per-entry work after XREADGROUP: stream-entry fields -> registry lookup ->
+ * SEND_MESSAGE frame -> socket, with a stub WebSocket in place of the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BridgeDeliveryBenchmark {
+
+  @Param({"32", "1024"})
+  int payloadSize;
+
+  private WebSocketRelayServer server;
+  private Map<String, String> fields;
+
+  @Setup
+  public void setup() {
+    server = new WebSocketRelayServer(0);
+    BenchWebSocket conn = new BenchWebSocket(server);
+    server.openSession(conn).activate(() -> true);
+    server.authClient.webSocketRegistry.addByClientId("user2:dev9", conn);
+
+    fields = Map.of(
+        "from", "user1:dev1",
+        "client_id", "user2:dev9",
+        "data", "x".repeat(payloadSize));
+  }
+
+  @Benchmark
+  public boolean deliverEntry() {
+    return server.sendMessageToClientId(fields.get("from"), fields.get("client_id"), fields.get("data"));
+  }
+}
@@ -0,0 +1,72 @@
+package com.social100.todero;
+
+import org.openjdk.jmh.annotations.*;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.params.XAddParams;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The old publish path (borrow + PING + XADD per message) against the batched RedisPublisher,
+ * with many concurrent senders. Needs a live Redis (-Dredis.host / -Dredis.port), so the
+ * default benchmark run excludes it; see the benchmarks profile in pom.xml.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(64)
+public class RedisPublisherBenchmark {
+
+  private static final String STREAM = "bench-client-messages";
+
+  @Param({"legacy", "batched"})
+  String path;
+
+  private JedisPool legacyPool;
+  private RedisPublisher publisher;
+  private final XAddParams params = new XAddParams().approximateTrimming().maxLen(10_000);
+
+  @State(Scope.Thread)
+  public static class Sender {
+    int next;
+  }
+
+  @Setup
+  public void setup() {
+    String host = System.getProperty("redis.host", "localhost");
+    int port = Integer.getInteger("redis.port", 6379);
+    JedisPoolConfig cfg = new JedisPoolConfig();
+    cfg.setMaxTotal(8); // same pool limit the publisher used to run with
+    legacyPool = new JedisPool(cfg, host, port);
+    publisher = new RedisPublisher(host, port, STREAM);
+  }
+
+  @TearDown
+  public void tearDown() {
+    try (Jedis jedis = legacyPool.getResource()) {
+      jedis.del(STREAM);
+    }
+    publisher.close();
+    legacyPool.close();
+  }
+
+  @Benchmark
+  public Object publish(Sender sender) {
+    int i = sender.next++;
+    if ("batched".equals(path)) {
+      return publisher.publish("bench:1", "bench:" + i, "payload-" + i);
+    }
+    try (Jedis jedis = legacyPool.getResource()) {
+      jedis.ping();
+      Map<String, String> fields = new HashMap<>();
+      fields.put("from", "bench:1");
+      fields.put("client_id", "bench:" + i);
+      fields.put("data", "payload-" + i);
+      return jedis.xadd(STREAM, fields, params);
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package com.social100.todero;
+
+import org.java_websocket.WebSocket;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry under contention: connect/disconnect churn running next to lookups
+ * (-t controls threads; the group splits them 1 writer : 3 readers).
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WebSocketRegistryBenchmark {
+
+  private static final int CLIENTS = 10_000;
+
+  private WebSocketRegistry registry;
+  private WebSocket[] conns;
+  private String[] clientIds;
+
+  @Setup
+  public void setup() {
+    WebSocketRelayServer server = new WebSocketRelayServer(0);
+    registry = new WebSocketRegistry();
+    conns = new WebSocket[CLIENTS];
+    clientIds = new String[CLIENTS];
+    for (int i = 0; i < CLIENTS; i++) {
+      conns[i] = new BenchWebSocket(server);
+      clientIds[i] = "user" + (i / 4) + ":dev" + (i % 4);
+      registry.addByClientId(clientIds[i], conns[i]);
+    }
+  }
+
+  @Benchmark
+  @Group("churn")
+  @GroupThreads(1)
+  public void reconnect() {
+    int i = ThreadLocalRandom.current().nextInt(CLIENTS);
+    registry.removeByConnection(conns[i]);
+    registry.addByClientId(clientIds[i], conns[i]);
+  }
+
+  @Benchmark
+  @Group("churn")
+  @GroupThreads(3)
+  public WebSocket lookup() {
+    return registry.getConnection(clientIds[ThreadLocalRandom.current().nextInt(CLIENTS)]);
+  }
+
+  @Benchmark
+  @Group("writersOnly")
+  @GroupThreads(4)
+  public void addRemoveOnly() {
+    int i = ThreadLocalRandom.current().nextInt(CLIENTS);
+    registry.removeByConnection(conns[i]);
+    registry.addByClientId(clientIds[i], conns[i]);
+  }
+}
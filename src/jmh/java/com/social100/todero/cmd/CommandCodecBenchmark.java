@@ -0,0 +1,62 @@
+package com.social100.todero.cmd;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Text codec, both directions, across payload sizes and escape densities. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandCodecBenchmark {
+
+  @Param({"16", "256", "4096"})
+  int payloadSize;
+
+  // fraction of payload chars that are ':' or '\' and need escaping
+  @Param({"0", "0.01", "0.1"})
+  double escapeDensity;
+
+  private final CommandFramework.CommandCodec codec = new CommandFramework.CommandCodec();
+  private final CommandFramework.BinaryCommandCodec binaryCodec = new CommandFramework.BinaryCommandCodec();
+  private CommandFramework.CommandMessage message;
+  private String frame;
+
+  @Setup
+  public void setup() {
+    Random rnd = new Random(42);
+    StringBuilder sb = new StringBuilder(payloadSize);
+    for (int i = 0; i < payloadSize; i++) {
+      if (rnd.nextDouble() < escapeDensity) sb.append(rnd.nextBoolean() ? ':' : '\\');
+      else sb.append((char) ('a' + rnd.nextInt(26)));
+    }
+    message = new CommandFramework.CommandMessage(
+        "3f2b8c1e-0d4a-4e7b-9a55-1c2d3e4f5a6b", "SEND_MESSAGE",
+        List.of("FROM:user1:dev1", "TO:user2:dev9", "MESSAGE:" + sb),
+        CommandFramework.CommandMessage.Kind.REQUEST);
+    frame = codec.serialize(message);
+  }
+
+  @Benchmark
+  public String serialize() {
+    return codec.serialize(message);
+  }
+
+  @Benchmark
+  public CommandFramework.CommandMessage deserialize() {
+    return codec.deserialize(frame);
+  }
+
+  @Benchmark
+  public String serializeKeyValues() {
+    return codec.serializeKeyValues(CommandFramework.CommandMessage.Kind.REQUEST, message.getId(), message.getName(),
+        "FROM", "user1:dev1", "TO", "user2:dev9", "MESSAGE", message.getParams().get(2));
+  }
+
+  @Benchmark
+  public java.nio.ByteBuffer encodeBinary() {
+    return binaryCodec.encode(message);
+  }
+}
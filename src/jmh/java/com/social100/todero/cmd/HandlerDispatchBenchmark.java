@@ -0,0 +1,86 @@
+package com.social100.todero.cmd;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Inline vs. off-thread handler dispatch with a handler that blocks like a Redis round trip.
+ * Connections are pinned to a small pool of "decoder" threads, as in Java-WebSocket; one op is
+ * a burst of requests on every connection, finished when every response has been written.
+ * On Java 17 "virtual" falls back to a platform pool, so run on 21+ for the real comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HandlerDispatchBenchmark {
+
+  @Param({"inline", "virtual"})
+  String dispatch;
+
+  @Param({"500"})
+  int latencyMicros;
+
+  private static final int CONNECTIONS = 64;
+  private static final int DECODERS = 4;
+  private static final int REQUESTS_PER_CONNECTION = 8;
+
+  private final AtomicReference<CountDownLatch> done = new AtomicReference<>();
+  private ExecutorService decoders;
+  private ExecutorService handlers;
+  private CommandFramework.CommandBus[] buses;
+  private String[][] frames;
+
+  @Setup
+  public void setup() {
+    CommandFramework.CommandRegistry registry = new CommandFramework.CommandRegistry();
+    registry.register("PUBLISH", req -> {
+      LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(latencyMicros));
+      return new CommandFramework.CommandMessage(req.getId(), "OK", List.of(), CommandFramework.CommandMessage.Kind.RESPONSE);
+    });
+    CommandFramework.CommandCodec codec = new CommandFramework.CommandCodec();
+    decoders = Executors.newFixedThreadPool(DECODERS);
+    if ("virtual".equals(dispatch)) handlers = HandlerExecutors.virtualThreadsOrPool(256);
+    Semaphore inFlight = new Semaphore(10_000);
+
+    buses = new CommandFramework.CommandBus[CONNECTIONS];
+    frames = new String[CONNECTIONS][REQUESTS_PER_CONNECTION];
+    for (int c = 0; c < CONNECTIONS; c++) {
+      buses[c] = new CommandFramework.CommandBus(registry, codec, frame -> done.get().countDown(), 30, TimeUnit.SECONDS);
+      if (handlers != null) buses[c].setHandlerExecutor(new SerialExecutor(handlers), 256, inFlight);
+      for (int i = 0; i < REQUESTS_PER_CONNECTION; i++) frames[c][i] = "REQUEST:" + i + ":PUBLISH:TOPIC\\:news";
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    decoders.shutdownNow();
+    if (handlers != null) handlers.shutdownNow();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CONNECTIONS * REQUESTS_PER_CONNECTION)
+  public void burst() throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch(CONNECTIONS * REQUESTS_PER_CONNECTION);
+    done.set(latch);
+    for (int d = 0; d < DECODERS; d++) {
+      int decoder = d;
+      decoders.execute(() -> {
+        for (int c = decoder; c < CONNECTIONS; c += DECODERS) {
+          for (String frame : frames[c]) buses[c].receive(frame);
+        }
+      });
+    }
+    latch.await();
+  }
+}
@@ -0,0 +1,27 @@
+package com.social100.todero.cmd;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** ParamParser.parse with the SEND_MESSAGE spec. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ParamParserBenchmark {
+
+  private final ParamParser.ParamSpec spec = ParamParser.ParamSpec.builder()
+      .addKey(ParamParser.KeySpec.builder("FROM").required(true).allowEmpty(false).validator(v -> !v.trim().isEmpty()))
+      .addKey(ParamParser.KeySpec.builder("TO").required(true).allowEmpty(false).validator(v -> !v.trim().isEmpty()))
+      .addKey(ParamParser.KeySpec.builder("MESSAGE").required(true).allowEmpty(true))
+      .allowUnknownKeys(false)
+      .build();
+
+  private final List<String> params = List.of("FROM:user1:dev1", "to:user2:dev9", "Message:hello there");
+
+  @Benchmark
+  public String parse() {
+    return ParamParser.parse(params, spec).require("MESSAGE");
+  }
+}
@@ -2,29 +2,116 @@ package com.social100.todero;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.social100.todero.log.Log;
+import com.social100.todero.metrics.Histogram;
+import com.social100.todero.metrics.MetricsRegistry;
 import org.java_websocket.WebSocket;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.nio.charset.StandardCharsets;
-import java.util.stream.Collectors;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AuthClient {
+  private static final Log LOG = Log.get("Auth");
 
   private static final ObjectMapper objectMapper = new ObjectMapper();
 
+  private static final String DEFAULT_BASE_URL = "https://auth.shellaia.com";
+
+  // explicit timeouts so a slow auth server can't hold a connection forever
+  private static final Duration CONNECT_TIMEOUT = Duration.ofMillis(Long.getLong("auth.connectTimeoutMs", 2000));
+  private static final Duration READ_TIMEOUT = Duration.ofMillis(Long.getLong("auth.readTimeoutMs", 5000));
+
+  // async client: the WebSocket I/O thread only fires the request, completion runs on the client's executor
+  private static final HttpClient httpClient = HttpClient.newBuilder()
+      .connectTimeout(CONNECT_TIMEOUT)
+      .build();
+
+  // registration (registry listeners, buffered-frame replay) always runs here, never on the
+  // WebSocket I/O thread, even when the validation came straight from the cache
+  private static final AtomicInteger registrationThreads = new AtomicInteger();
+  private static final ExecutorService registrationExecutor = Executors.newFixedThreadPool(
+      Integer.getInteger("auth.threads", 4), r -> {
+        Thread t = new Thread(r, "auth-register-" + registrationThreads.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      });
+
+  // token hash -> last validation result; reconnecting clients skip the auth round-trip
+  private static final long CACHE_TTL_MS = Long.getLong("auth.cache.ttlMs", 60_000);
+  private static final long CACHE_NEGATIVE_TTL_MS = Long.getLong("auth.cache.negativeTtlMs", 5_000);
+  private final BoundedTtlCache<String, ValidationResponse> validationCache =
+      new BoundedTtlCache<>(Integer.getInteger("auth.cache.maxEntries", 10_000));
+
   WebSocketRegistry webSocketRegistry = new WebSocketRegistry();
   RegistryMonitor monitor = new RegistryMonitor(webSocketRegistry, 600);
 
+  private static final Histogram AUTH_LATENCY = MetricsRegistry.global()
+      .histogram("auth_validation_latency_us", "Token validation round-trip to the auth server (cache misses only)");
+  private static final MetricsRegistry.Counter CACHE_HITS = MetricsRegistry.global()
+      .counter("auth_cache_hits_total", "Token validations answered from the cache");
+  private static final MetricsRegistry.Counter CACHE_MISSES = MetricsRegistry.global()
+      .counter("auth_cache_misses_total", "Token validations that went to the auth server");
+
+  private final String baseUrl;
+
+  public AuthClient() {
+    this(DEFAULT_BASE_URL);
+  }
+
+  AuthClient(String baseUrl) {
+    this.baseUrl = baseUrl;
+  }
+
+  /** Exports this client's registry and cache sizes; called once by the server that owns it. */
+  void registerMetrics(MetricsRegistry metrics) {
+    metrics.gauge("registry_connections", "ClientIds bound to a connection", webSocketRegistry::size);
+    metrics.gauge("auth_cache_size", "Token validation cache entries", validationCache::size);
+  }
+
+  /** Blocking variant; prefer {@link #validateAndRegisterAsync} on I/O threads. */
   public boolean validateAndRegister(String token, WebSocket conn) {
-    try {
-      ValidationResponse validation = validateToken(token);
+    return validateAndRegisterAsync(token, conn).join();
+  }
+
+  /**
+   * Validates the token without blocking the caller. On success the client is registered and
+   * its session (if any) leaves the pending-auth state; on failure the connection is closed.
+   * Completes with true if the client ended up registered.
+   */
+  public CompletableFuture<Boolean> validateAndRegisterAsync(String token, WebSocket conn) {
+    return validateToken(token).handleAsync((validation, ex) -> {
+      if (ex != null) {
+        Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+        if (cause instanceof HttpTimeoutException) {
+          LOG.warn("Auth timed out: {}", cause.getMessage());
+          conn.close(1008, "Auth timeout");
+        } else if (cause instanceof AuthUnavailableException) {
+          LOG.warn("Auth server unavailable: {}", cause.getMessage());
+          conn.close(1013, "Auth unavailable"); // Try Again Later
+        } else {
+          LOG.warn("Auth request failed: {}", cause.getMessage());
+          conn.close(1008, "IOException : " + cause.getMessage());
+        }
+        return false;
+      }
+
       if (!validation.isValid()) {
-        System.out.println("Rejected client: invalid token");
+        LOG.info("Rejected client: invalid token");
         conn.close(1008, "Invalid token");
         return false;
       }
@@ -32,71 +119,117 @@ public class AuthClient {
       // Build a client ID using the user_id + device_id
       String clientId = validation.userId() + ":" + validation.deviceId();
 
-      // Store the connection for later use
-      webSocketRegistry.addByClientId(clientId, conn);
-
-      monitor.triggerNow("Added ClientId : " + clientId);
-
-      System.out.println("Client registered with id = " + clientId);
+      // Store the connection for later use (skipped if the socket closed while we were waiting)
+      ClientSession session = ClientSession.of(conn);
+      boolean registered = (session != null)
+          ? session.activate(() -> {
+              session.setIdentity(clientId, validation.role());
+              return register(clientId, conn);
+            })
+          : register(clientId, conn);
+
+      if (!registered) {
+        LOG.debug("Client {} closed before auth completed", clientId);
+        return false;
+      }
+      LOG.info("Client registered with id = {}", clientId);
       return true;
-
-    } catch (IOException e) {
-      System.out.println("IOException : " + e.getMessage());
-      conn.close(1008, "IOException : " + e.getMessage());
-      return false;
-    }
+    }, registrationExecutor);
   }
 
-  private ValidationResponse validateToken(String token) throws IOException {
-    String baseUrl = "https://auth.shellaia.com";
-
-    URL url = new URL(baseUrl + "/auth/api-tokens/validate");
-    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+  private boolean register(String clientId, WebSocket conn) {
+    webSocketRegistry.addByClientId(clientId, conn);
+    return true;
+  }
 
-    conn.setRequestMethod("POST");
-    conn.setDoOutput(true);
-    conn.setRequestProperty("Authorization", "Bearer " + token);
-    conn.setRequestProperty("X-Custom-Header", "volunteer_548456");
-    conn.setRequestProperty("Content-Type", "application/json");
+  /** Drops a cached validation result, e.g. after the token was revoked. */
+  public void invalidateToken(String token) {
+    validationCache.invalidate(tokenKey(token));
+  }
 
-    byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
-    try (OutputStream os = conn.getOutputStream()) {
-      os.write(body);
-    }
+  public void invalidateAllTokens() {
+    validationCache.invalidateAll();
+  }
 
-    int statusCode = conn.getResponseCode();
+  /** Hit/miss/eviction counters for sizing the cache. */
+  public BoundedTtlCache<String, ?> getValidationCache() {
+    return validationCache;
+  }
 
-    String responseBody;
-    try (BufferedReader reader = new BufferedReader(
-        new InputStreamReader(
-            statusCode >= 200 && statusCode < 300
-                ? conn.getInputStream()
-                : conn.getErrorStream(),
-            StandardCharsets.UTF_8))) {
-      responseBody = reader.lines().collect(Collectors.joining("\n"));
+  private CompletableFuture<ValidationResponse> validateToken(String token) {
+    String key = tokenKey(token);
+    ValidationResponse cached = validationCache.get(key);
+    if (cached != null) {
+      CACHE_HITS.inc();
+      return CompletableFuture.completedFuture(cached);
     }
+    CACHE_MISSES.inc();
+    long start = System.nanoTime();
+    return fetchValidation(token).thenApply(validation -> {
+      AUTH_LATENCY.record((System.nanoTime() - start) / 1_000);
+      validationCache.put(key, validation, validation.isValid() ? CACHE_TTL_MS : CACHE_NEGATIVE_TTL_MS);
+      return validation;
+    });
+  }
 
-    System.out.println("Response body: " + responseBody);
-
-    boolean valid = (statusCode == HttpURLConnection.HTTP_OK);
-
-    // Parse JSON fields if valid
-    if (valid) {
-      JsonNode node = objectMapper.readTree(responseBody);
-      String deviceId = node.path("device_id").asText("");
-      String userId   = node.path("user_id").asText("");
-      String role     = node.path("role").asText("");
-      String iss      = node.path("iss").asText("");
-
-      return new ValidationResponse(true, deviceId, userId, role, iss);
+  // never keep raw tokens in memory longer than the request
+  private static String tokenKey(String token) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+      return Base64.getEncoder().withoutPadding().encodeToString(digest);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 not available", e);
     }
+  }
 
-    return new ValidationResponse(false, null, null, null, null);
+  private CompletableFuture<ValidationResponse> fetchValidation(String token) {
+    HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/auth/api-tokens/validate"))
+        .timeout(READ_TIMEOUT)
+        .header("Authorization", "Bearer " + token)
+        .header("X-Custom-Header", "volunteer_548456")
+        .header("Content-Type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofString("{}"))
+        .build();
+
+    return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+        .thenApply(response -> {
+          String responseBody = response.body();
+          LOG.debug("Auth response status={} bytes={}", response.statusCode(), responseBody.length());
+
+          int status = response.statusCode();
+          // only a definitive answer may be cached; 5xx, 429 and the like fail like a transport error
+          if (status != 200 && status != 401 && status != 403) {
+            throw new CompletionException(new AuthUnavailableException("auth server returned HTTP " + status));
+          }
+
+          // Parse JSON fields if valid
+          if (status == 200) {
+            try {
+              JsonNode node = objectMapper.readTree(responseBody);
+              String deviceId = node.path("device_id").asText("");
+              String userId   = node.path("user_id").asText("");
+              String role     = node.path("role").asText("");
+              String iss      = node.path("iss").asText("");
+
+              return new ValidationResponse(true, deviceId, userId, role, iss);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          }
+
+          return new ValidationResponse(false, null, null, null, null);
+        });
   }
 
   public void unregister(WebSocket conn) {
     webSocketRegistry.removeByConnection(conn);
-    monitor.triggerNow("unregister");
+  }
+
+  // the auth server could not give an answer (overloaded, failing); never cached
+  private static final class AuthUnavailableException extends IOException {
+    AuthUnavailableException(String message) {
+      super(message);
+    }
   }
 
   // 🧱 Small record that holds the validation + extracted fields
@@ -0,0 +1,98 @@
+package com.social100.todero;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Small LRU cache with a per-entry TTL and a hard size limit.
+ * A single lock is fine here: it sits on the connect path, not the per-frame path.
+ */
+public class BoundedTtlCache<K, V> {
+
+  private record Entry<V>(V value, long expiresAtNanos) {}
+
+  private final int maxEntries;
+  private final LinkedHashMap<K, Entry<V>> map;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public BoundedTtlCache(int maxEntries) {
+    if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries must be > 0");
+    this.maxEntries = maxEntries;
+    this.map = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+        if (size() > BoundedTtlCache.this.maxEntries) {
+          evictions.increment();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /** Returns the cached value, or null if absent or expired. */
+  public V get(K key) {
+    long now = System.nanoTime();
+    synchronized (map) {
+      Entry<V> e = map.get(key);
+      if (e != null && now - e.expiresAtNanos() < 0) {
+        hits.increment();
+        return e.value();
+      }
+      if (e != null) map.remove(key);
+    }
+    misses.increment();
+    return null;
+  }
+
+  public void put(K key, V value, long ttlMillis) {
+    if (ttlMillis <= 0) return;
+    long expiresAt = System.nanoTime() + ttlMillis * 1_000_000L;
+    synchronized (map) {
+      map.put(key, new Entry<>(value, expiresAt));
+    }
+  }
+
+  public void invalidate(K key) {
+    synchronized (map) {
+      map.remove(key);
+    }
+  }
+
+  public void invalidateAll() {
+    synchronized (map) {
+      map.clear();
+    }
+  }
+
+  /** Drops expired entries; optional, expired entries are also skipped lazily on get. */
+  public void purgeExpired() {
+    long now = System.nanoTime();
+    synchronized (map) {
+      Iterator<Entry<V>> it = map.values().iterator();
+      while (it.hasNext()) {
+        if (now - it.next().expiresAtNanos() >= 0) it.remove();
+      }
+    }
+  }
+
+  public int size() {
+    synchronized (map) {
+      return map.size();
+    }
+  }
+
+  public long hits()      { return hits.sum(); }
+  public long misses()    { return misses.sum(); }
+  public long evictions() { return evictions.sum(); }
+
+  @Override
+  public String toString() {
+    return "size=" + size() + "/" + maxEntries + ", hits=" + hits() + ", misses=" + misses() + ", evictions=" + evictions();
+  }
+}
@@ -0,0 +1,261 @@
+package com.social100.todero;
+
+import com.social100.todero.cmd.CommandFramework;
+import com.social100.todero.log.Log;
+import org.java_websocket.WebSocket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Per-connection state, attached to the WebSocket via {@link WebSocket#setAttachment}.
+ * Each session owns its own CommandBus (writer + pending map) so traffic on
+ * different sockets never shares a lock.
+ *
+ * A session starts in PENDING_AUTH: frames that arrive before the token is validated
+ * are buffered (up to a limit) and replayed in order once the client is registered.
+ */
+public class ClientSession {
+  private static final Log LOG = Log.get("ClientSession");
+
+  public enum State { PENDING_AUTH, ACTIVE, CLOSED }
+
+  static final int MAX_PENDING_FRAMES = Integer.getInteger("auth.maxPendingFrames", 16);
+  static final int MAX_DEFERRED_MESSAGES = Integer.getInteger("mailbox.maxDeferred", 1000);
+
+  private final WebSocket conn;
+  private final CommandFramework.CommandBus bus;
+  private final OutboundQueue outbound; // null when the bus writes to the socket directly
+
+  // set by AuthClient once the token is validated
+  private volatile String clientId;
+  private volatile String role;
+
+  private final AtomicLong sendFailures = new AtomicLong();
+
+  // guarded by this
+  private State state = State.PENDING_AUTH;
+  private final ArrayDeque<Object> pendingFrames = new ArrayDeque<>(); // String or ByteBuffer
+  private boolean replaying;
+  private boolean replayRequested; // asked for again while running: more mail may sit behind its last read
+  private final ArrayDeque<Deferred> deferred = new ArrayDeque<>(); // live SEND_MESSAGEs held back by a replay
+
+  /** A send found {@link #MAX_DEFERRED_MESSAGES} live messages already waiting for the mailbox replay. */
+  public static class ReplayBacklogFullException extends IllegalStateException {
+    ReplayBacklogFullException(String clientId) {
+      super("Too many messages waiting for the mailbox replay of " + clientId);
+    }
+  }
+
+  // either keysAndValues or a fan-out frame (prepared); response is null for one-way messages
+  private record Deferred(String[] keysAndValues, CommandFramework.PreparedRequest prepared,
+                          CompletableFuture<CommandFramework.CommandMessage> response) {}
+
+  ClientSession(WebSocket conn, CommandFramework.CommandBus bus) {
+    this(conn, bus, null);
+  }
+
+  ClientSession(WebSocket conn, CommandFramework.CommandBus bus, OutboundQueue outbound) {
+    this.conn = conn;
+    this.bus = bus;
+    this.outbound = outbound;
+  }
+
+  public WebSocket getConnection() { return conn; }
+  public CommandFramework.CommandBus getBus() { return bus; }
+
+  public String getClientId() { return clientId; }
+  public String getRole() { return role; }
+
+  public boolean isAdmin() {
+    return "admin".equalsIgnoreCase(role);
+  }
+
+  void setIdentity(String clientId, String role) {
+    this.clientId = clientId;
+    this.role = role;
+  }
+
+  /** Failed writes to this socket (closed/not connected). */
+  public long getSendFailures() {
+    return sendFailures.get();
+  }
+
+  void recordSendFailure() {
+    sendFailures.incrementAndGet();
+  }
+
+  /** Outbound frames dropped by the slow-consumer policy. */
+  public long getDroppedFrames() {
+    return outbound == null ? 0 : outbound.getDropped();
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /** Dispatches an inbound text frame, or buffers it while authentication is still running. */
+  public void receive(String raw) {
+    if (accept(raw)) bus.receive(raw);
+  }
+
+  /** Binary counterpart; the buffer is copied if it has to wait for authentication. */
+  public void receive(ByteBuffer frame) {
+    if (accept(frame)) bus.receive(frame);
+  }
+
+  // true -> dispatch now; false -> buffered or dropped
+  private boolean accept(Object frame) {
+    synchronized (this) {
+      switch (state) {
+        case CLOSED:
+          return false;
+        case PENDING_AUTH:
+          if (pendingFrames.size() >= MAX_PENDING_FRAMES) {
+            LOG.warn("Too many frames before authentication, closing {}", conn.getRemoteSocketAddress());
+            pendingFrames.clear();
+            state = State.CLOSED;
+            conn.close(1008, "Too many frames before authentication");
+            return false;
+          } else {
+            pendingFrames.add(frame instanceof ByteBuffer b ? copy(b) : frame);
+          }
+          return false;
+        case ACTIVE:
+          break;
+      }
+    }
+    return true;
+  }
+
+  private static ByteBuffer copy(ByteBuffer b) {
+    ByteBuffer c = ByteBuffer.allocate(b.remaining());
+    c.put(b.duplicate());
+    return c.flip();
+  }
+
+  /**
+   * Runs the registration and, if it succeeds, replays buffered frames and switches to ACTIVE.
+   * Returns false without registering if the connection was closed while auth was pending.
+   * Holding the session lock here keeps newer frames behind the buffered ones.
+   */
+  public synchronized boolean activate(BooleanSupplier registration) {
+    if (state != State.PENDING_AUTH) return false;
+    if (!registration.getAsBoolean()) return false;
+    state = State.ACTIVE;
+    Object frame;
+    while ((frame = pendingFrames.poll()) != null) {
+      if (frame instanceof ByteBuffer b) bus.receive(b);
+      else bus.receive((String) frame);
+    }
+    return true;
+  }
+
+  /**
+   * Live SEND_MESSAGEs are held back from now on, so mailbox messages go out first.
+   * Returns false if a replay is already running; that replay then makes one more pass
+   * before it finishes (see {@link #finishReplay()}).
+   */
+  synchronized boolean tryBeginReplay() {
+    if (state == State.CLOSED) return false;
+    if (replaying) {
+      replayRequested = true;
+      return false;
+    }
+    replaying = true;
+    return true;
+  }
+
+  /**
+   * One-way SEND_MESSAGE, or queued behind a running mailbox replay.
+   * @throws ReplayBacklogFullException when the replay already has too many messages waiting
+   */
+  public void sendMessage(String... keysAndValues) {
+    if (!defer(keysAndValues, null, null)) bus.sendKeyValues("SEND_MESSAGE", keysAndValues);
+  }
+
+  /** One-way send of a frame shared with other sessions (user / topic fan-out), same ordering as above. */
+  public void sendMessage(CommandFramework.PreparedRequest prepared) {
+    if (!defer(null, prepared, null)) bus.send(prepared);
+  }
+
+  /**
+   * As {@link #sendMessage}, but tracked: the future completes with the client's response
+   * (also when the message had to wait for a replay).
+   */
+  public CompletableFuture<CommandFramework.CommandMessage> requestMessage(String... keysAndValues) {
+    CompletableFuture<CommandFramework.CommandMessage> response = new CompletableFuture<>();
+    if (defer(keysAndValues, null, response)) return response;
+    return bus.requestKeyValues("SEND_MESSAGE", keysAndValues);
+  }
+
+  /** Tracked counterpart of {@link #sendMessage(CommandFramework.PreparedRequest)}. */
+  public CompletableFuture<CommandFramework.CommandMessage> requestMessage(CommandFramework.PreparedRequest prepared) {
+    CompletableFuture<CommandFramework.CommandMessage> response = new CompletableFuture<>();
+    if (defer(null, prepared, response)) return response;
+    return bus.request(prepared);
+  }
+
+  private synchronized boolean defer(String[] keysAndValues, CommandFramework.PreparedRequest prepared,
+                                     CompletableFuture<CommandFramework.CommandMessage> response) {
+    if (!replaying) return false;
+    if (deferred.size() >= MAX_DEFERRED_MESSAGES) {
+      throw new ReplayBacklogFullException(clientId);
+    }
+    deferred.add(new Deferred(keysAndValues, prepared, response));
+    return true;
+  }
+
+  /**
+   * Flushes what arrived during the replay, in order, then switches back to direct sends.
+   * Returns false, still replaying, if another replay was asked for meanwhile: the caller
+   * reads the mailbox once more and calls this again.
+   */
+  boolean finishReplay() {
+    while (true) {
+      Deferred d;
+      synchronized (this) {
+        d = deferred.poll();
+        if (d == null) {
+          if (replayRequested && state != State.CLOSED) {
+            replayRequested = false;
+            return false;
+          }
+          replayRequested = false;
+          replaying = false;
+          return true;
+        }
+      }
+      try {
+        if (d.response() == null) {
+          if (d.prepared() != null) bus.send(d.prepared());
+          else bus.sendKeyValues("SEND_MESSAGE", d.keysAndValues());
+        } else {
+          CompletableFuture<CommandFramework.CommandMessage> sent = d.prepared() != null
+              ? bus.request(d.prepared())
+              : bus.requestKeyValues("SEND_MESSAGE", d.keysAndValues());
+          sent.whenComplete((r, ex) -> {
+            if (ex != null) d.response().completeExceptionally(ex);
+            else d.response().complete(r);
+          });
+        }
+      } catch (RuntimeException e) {
+        if (d.response() != null) d.response().completeExceptionally(e);
+      }
+    }
+  }
+
+  /** Called from onClose; a pending auth that completes afterwards will not register. */
+  public synchronized void markClosed() {
+    state = State.CLOSED;
+    pendingFrames.clear();
+  }
+
+  /** Returns the session attached to this connection, or null if none was opened. */
+  public static ClientSession of(WebSocket conn) {
+    return conn == null ? null : conn.getAttachment();
+  }
+}
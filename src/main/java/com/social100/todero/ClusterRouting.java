@@ -0,0 +1,225 @@
+package com.social100.todero;
+
+import com.social100.todero.log.Log;
+import org.java_websocket.WebSocket;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis routing directory: clientId -> owning node, plus one inbound stream per node.
+ *
+ * Keys (for base stream "client-messages"):
+ *   client-messages:routes        HASH   clientId -> nodeId
+ *   client-messages:user:<userId> HASH   clientId -> nodeId, for that user's devices only
+ *   client-messages:topic:<topic> SET    nodes with at least one local subscriber
+ *   client-messages:node:<nodeId> STREAM entries for clients connected to that node
+ *
+ * Routes are written from {@link WebSocketRegistry} events on a single background thread,
+ * so updates for a client stay ordered and never block the WebSocket thread.
+ */
+public class ClusterRouting implements WebSocketRegistry.Listener, TopicIndex.Listener, AutoCloseable {
+  private static final Log LOG = Log.get("ClusterRouting");
+
+  // delete the route only where it still points at us (the client may already have moved)
+  private static final String RELEASE_SCRIPT =
+      "local n = 0 " +
+      "for _, key in ipairs(KEYS) do " +
+      "  if redis.call('HGET', key, ARGV[1]) == ARGV[2] then " +
+      "    n = n + redis.call('HDEL', key, ARGV[1]) " +
+      "  end " +
+      "end " +
+      "return n";
+
+  private static final int CONNECT_TIMEOUT_MS = 1000;
+  private static final int SO_TIMEOUT_MS = 3000;
+  private static final String CLIENT_NAME = "ws-cluster-routing";
+
+  private final String baseStream;
+  private final String nodeId;
+  private final JedisPool pool;
+  private final ExecutorService updater;
+
+  public ClusterRouting(String host, int port, String baseStream, String nodeId) {
+    this(baseStream, nodeId, newPool(host, port));
+  }
+
+  ClusterRouting(String baseStream, String nodeId, JedisPool pool) {
+    this.baseStream = baseStream;
+    this.nodeId = nodeId;
+    this.pool = pool;
+    this.updater = Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "ClusterRouting");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  private static JedisPool newPool(String host, int port) {
+    JedisPoolConfig poolConfig = new JedisPoolConfig();
+    poolConfig.setMaxTotal(8);
+    poolConfig.setMaxIdle(8);
+    poolConfig.setMinIdle(0);
+    poolConfig.setTestOnBorrow(true);
+    poolConfig.setTestWhileIdle(true);
+    poolConfig.setTimeBetweenEvictionRuns(Duration.ofSeconds(30));
+    poolConfig.setMinEvictableIdleDuration(Duration.ofSeconds(30));
+    poolConfig.setMaxWait(Duration.ofSeconds(2));
+
+    return new JedisPool(
+        poolConfig, host, port,
+        CONNECT_TIMEOUT_MS, SO_TIMEOUT_MS,
+        null, 0, CLIENT_NAME
+    );
+  }
+
+  /** -Dnode.id, else the container hostname, else a random id. */
+  public static String defaultNodeId() {
+    String id = System.getProperty("node.id");
+    if (id == null || id.isBlank()) id = System.getenv("HOSTNAME");
+    if (id == null || id.isBlank()) id = UUID.randomUUID().toString().substring(0, 8);
+    return id;
+  }
+
+  public String nodeId()     { return nodeId; }
+  public String baseStream() { return baseStream; }
+  public String routesKey()  { return baseStream + ":routes"; }
+
+  public String userKey(String userId) {
+    return baseStream + ":user:" + userId;
+  }
+
+  public String topicKey(String topic) {
+    return baseStream + ":topic:" + topic;
+  }
+
+  public String streamFor(String node) {
+    return baseStream + ":node:" + node;
+  }
+
+  /** This node's own inbound stream. */
+  public String inboundStream() {
+    return streamFor(nodeId);
+  }
+
+  public boolean isLocal(String node) {
+    return nodeId.equals(node);
+  }
+
+  /** Owning node for the clientId, or null if it's not connected anywhere. */
+  public String ownerOf(String clientId) {
+    try (Jedis jedis = pool.getResource()) {
+      return jedis.hget(routesKey(), clientId);
+    }
+  }
+
+  /** Nodes that currently hold at least one device of this user. */
+  public Set<String> nodesForUser(String userId) {
+    try (Jedis jedis = pool.getResource()) {
+      return new HashSet<>(jedis.hvals(userKey(userId)));
+    }
+  }
+
+  /** Nodes with at least one subscriber of this topic. */
+  public Set<String> nodesForTopic(String topic) {
+    try (Jedis jedis = pool.getResource()) {
+      return jedis.smembers(topicKey(topic));
+    }
+  }
+
+  /** Drops routes a previous incarnation of this node left behind (its sockets are gone). */
+  public void resetOwnRoutes() {
+    updater.execute(() -> {
+      try (Jedis jedis = pool.getResource()) {
+        Map<String, String> routes = jedis.hgetAll(routesKey());
+        String[] stale = routes.entrySet().stream()
+            .filter(e -> nodeId.equals(e.getValue()))
+            .map(Map.Entry::getKey)
+            .toArray(String[]::new);
+        for (String clientId : stale) {
+          jedis.eval(RELEASE_SCRIPT, keysFor(clientId), List.of(clientId, nodeId));
+        }
+      } catch (Exception e) {
+        LOG.warn("resetOwnRoutes failed: {}", e.getMessage());
+      }
+    });
+  }
+
+  @Override
+  public void onAdded(String clientId, WebSocket conn) {
+    updater.execute(() -> {
+      try (Jedis jedis = pool.getResource()) {
+        Pipeline p = jedis.pipelined();
+        p.hset(routesKey(), clientId, nodeId);
+        p.hset(userKey(userIdOf(clientId)), clientId, nodeId);
+        p.sync();
+      } catch (Exception e) {
+        LOG.warn("claim {} failed: {}", clientId, e.getMessage());
+      }
+    });
+  }
+
+  @Override
+  public void onRemoved(String clientId, WebSocket conn) {
+    updater.execute(() -> {
+      try (Jedis jedis = pool.getResource()) {
+        jedis.eval(RELEASE_SCRIPT, keysFor(clientId), List.of(clientId, nodeId));
+      } catch (Exception e) {
+        LOG.warn("release {} failed: {}", clientId, e.getMessage());
+      }
+    });
+  }
+
+  @Override
+  public void onTopicActive(String topic) {
+    updater.execute(() -> {
+      try (Jedis jedis = pool.getResource()) {
+        jedis.sadd(topicKey(topic), nodeId);
+      } catch (Exception e) {
+        LOG.warn("topic {} join failed: {}", topic, e.getMessage());
+      }
+    });
+  }
+
+  @Override
+  public void onTopicIdle(String topic) {
+    updater.execute(() -> {
+      try (Jedis jedis = pool.getResource()) {
+        jedis.srem(topicKey(topic), nodeId);
+      } catch (Exception e) {
+        LOG.warn("topic {} leave failed: {}", topic, e.getMessage());
+      }
+    });
+  }
+
+  /** Waits until every route update queued so far has been applied. */
+  void awaitUpdates() throws Exception {
+    updater.submit(() -> {}).get(5, TimeUnit.SECONDS);
+  }
+
+  private List<String> keysFor(String clientId) {
+    return List.of(routesKey(), userKey(userIdOf(clientId)));
+  }
+
+  private static String userIdOf(String clientId) {
+    int sep = clientId.indexOf(':');
+    return sep < 0 ? clientId : clientId.substring(0, sep);
+  }
+
+  @Override
+  public void close() {
+    updater.shutdown();
+    try { pool.close(); } catch (Exception ignored) {}
+  }
+}
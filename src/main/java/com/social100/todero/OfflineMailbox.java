@@ -0,0 +1,186 @@
+package com.social100.todero;
+
+import com.social100.todero.cmd.CmdArgs;
+import com.social100.todero.cmd.CommandFramework;
+import com.social100.todero.log.Log;
+import com.social100.todero.metrics.MetricsRegistry;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-client offline mailbox: messages for a clientId that is not connected anywhere are kept in
+ * a capped Redis list with a TTL and replayed, in order, when the client registers again.
+ *
+ * Keys (for base "client-messages"):
+ *   client-messages:mailbox:<clientId>  LIST  encoded FROM/DATA pairs, oldest first
+ *
+ * Replays run on a small fixed pool. Each task sends one batch and then re-queues itself behind
+ * the other clients' replays, so a reconnect storm is served round-robin by a bounded number of
+ * threads instead of every client draining its whole mailbox at once.
+ */
+public class OfflineMailbox implements AutoCloseable {
+  private static final Log LOG = Log.get("Mailbox");
+
+  static final int MAX_ENTRIES = Integer.getInteger("mailbox.maxEntries", 1000);
+  static final long TTL_MS = Long.getLong("mailbox.ttlMs", Duration.ofDays(7).toMillis());
+  static final int REPLAY_BATCH = Integer.getInteger("mailbox.replayBatch", 100);
+  static final int REPLAY_THREADS = Integer.getInteger("mailbox.replayThreads", 2);
+
+  private static final int CONNECT_TIMEOUT_MS = 1000;
+  private static final int SO_TIMEOUT_MS = 3000;
+  private static final String CLIENT_NAME = "ws-offline-mailbox";
+
+  private static final MetricsRegistry.Counter STORED = MetricsRegistry.global()
+      .counter("mailbox_stored_total", "Messages parked for an offline client");
+  private static final MetricsRegistry.Counter REPLAYED = MetricsRegistry.global()
+      .counter("mailbox_replayed_total", "Mailbox messages replayed to a reconnected client");
+
+  private final String baseKey;
+  private final JedisPool pool;
+  private final ExecutorService replayers;
+  private final AtomicInteger activeReplays = new AtomicInteger();
+
+  public OfflineMailbox(String host, int port, String baseKey) {
+    this.baseKey = baseKey;
+
+    JedisPoolConfig poolConfig = new JedisPoolConfig();
+    poolConfig.setMaxTotal(REPLAY_THREADS + 8);
+    poolConfig.setMaxIdle(8);
+    poolConfig.setMinIdle(0);
+    poolConfig.setTestOnBorrow(true);
+    poolConfig.setTestWhileIdle(true);
+    poolConfig.setTimeBetweenEvictionRuns(Duration.ofSeconds(30));
+    poolConfig.setMinEvictableIdleDuration(Duration.ofSeconds(30));
+    poolConfig.setMaxWait(Duration.ofSeconds(2));
+
+    this.pool = new JedisPool(
+        poolConfig, host, port,
+        CONNECT_TIMEOUT_MS, SO_TIMEOUT_MS,
+        null, 0, CLIENT_NAME
+    );
+    AtomicInteger n = new AtomicInteger();
+    this.replayers = Executors.newFixedThreadPool(REPLAY_THREADS, r -> {
+      Thread t = new Thread(r, "OfflineMailbox-replay-" + n.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    MetricsRegistry.global().gauge("mailbox_active_replays", "Clients with a replay in progress", activeReplays::get);
+  }
+
+  public String keyFor(String clientId) {
+    return baseKey + ":mailbox:" + clientId;
+  }
+
+  /** Appends a message; the list keeps the newest {@code mailbox.maxEntries} and expires when idle. */
+  public void store(String clientId, String fromClientId, String data) {
+    String key = keyFor(clientId);
+    try (Jedis jedis = pool.getResource()) {
+      Pipeline p = jedis.pipelined();
+      p.rpush(key, encode(fromClientId, data));
+      p.ltrim(key, -MAX_ENTRIES, -1);
+      p.pexpire(key, TTL_MS);
+      p.sync();
+    }
+    STORED.inc();
+  }
+
+  /**
+   * Replays the client's mailbox into its session in the background; live messages are held
+   * back by the session until the replay is done (see {@link ClientSession#tryBeginReplay()}).
+   * Never touches Redis on the calling thread: an empty mailbox shows up as an empty first
+   * LPOP on the replay pool, which ends the replay right away.
+   */
+  public void replay(ClientSession session, String clientId) {
+    activeReplays.incrementAndGet();
+    submit(session, clientId);
+  }
+
+  private void submit(ClientSession session, String clientId) {
+    try {
+      replayers.execute(() -> replayBatch(session, clientId));
+    } catch (RejectedExecutionException e) {
+      done(session, clientId);
+    }
+  }
+
+  private void replayBatch(ClientSession session, String clientId) {
+    if (session.getState() == ClientSession.State.CLOSED) {
+      done(session, clientId); // the rest stays in Redis for the next connection
+      return;
+    }
+    String key = keyFor(clientId);
+    List<String> batch;
+    try (Jedis jedis = pool.getResource()) {
+      // LPOP with a count takes the batch atomically: a concurrent store() trimming the list
+      // can't shift the head between reading and removing it
+      batch = jedis.lpop(key, REPLAY_BATCH);
+      if (batch == null) batch = List.of();
+      CommandFramework.CommandBus bus = session.getBus();
+      for (int i = 0; i < batch.size(); i++) {
+        String[] m = decode(batch.get(i));
+        try {
+          bus.sendKeyValues("SEND_MESSAGE", CmdArgs.sendMessageKeyValues(m[0], clientId, m[1]));
+        } catch (RuntimeException e) {
+          requeue(jedis, key, batch.subList(i, batch.size()));
+          throw e;
+        }
+      }
+      REPLAYED.add(batch.size());
+    } catch (RuntimeException e) {
+      LOG.warn("Replay for {} stopped: {}", clientId, e.getMessage());
+      done(session, clientId);
+      return;
+    }
+    if (batch.size() < REPLAY_BATCH) {
+      if (!batch.isEmpty()) LOG.debug("Replayed mailbox of {}", clientId);
+      done(session, clientId);
+    } else {
+      submit(session, clientId); // back of the line: round-robin across clients
+    }
+  }
+
+  // puts unsent messages back at the head, oldest first, for the next connection
+  private static void requeue(Jedis jedis, String key, List<String> unsent) {
+    if (unsent.isEmpty()) return;
+    String[] reversed = new String[unsent.size()];
+    for (int i = 0; i < reversed.length; i++) reversed[i] = unsent.get(unsent.size() - 1 - i);
+    jedis.lpush(key, reversed);
+    jedis.pexpire(key, TTL_MS);
+  }
+
+  private void done(ClientSession session, String clientId) {
+    if (session.finishReplay()) {
+      activeReplays.decrementAndGet();
+    } else {
+      submit(session, clientId); // more was parked behind our last read (e.g. live overflow)
+    }
+  }
+
+  // "<from length>:<from><data>", so neither field needs escaping
+  static String encode(String fromClientId, String data) {
+    String from = fromClientId == null ? "" : fromClientId;
+    return from.length() + ":" + from + (data == null ? "" : data);
+  }
+
+  static String[] decode(String encoded) {
+    int colon = encoded.indexOf(':');
+    int len = Integer.parseInt(encoded.substring(0, colon));
+    String from = encoded.substring(colon + 1, colon + 1 + len);
+    return new String[] { from.isEmpty() ? null : from, encoded.substring(colon + 1 + len) };
+  }
+
+  @Override
+  public void close() {
+    replayers.shutdownNow();
+    try { pool.close(); } catch (Exception ignored) {}
+  }
+}
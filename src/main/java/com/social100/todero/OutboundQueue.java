@@ -0,0 +1,240 @@
+package com.social100.todero;
+
+import com.social100.todero.log.Log;
+import com.social100.todero.metrics.MetricsRegistry;
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.Framedata;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded per-connection outbound queue in front of Java-WebSocket's own (unbounded) write queue.
+ *
+ * Frames are handed to the socket only while its buffered amount is below a high-water mark;
+ * everything else waits here, bounded by message count and (approximate) bytes. When a new frame
+ * does not fit, the slow-consumer policy decides: drop the oldest queued frame, drop the new one,
+ * or close the connection. Whatever is queued when the socket accepts writes again goes out as
+ * one batch (one write demand on the selector instead of one per frame).
+ */
+public class OutboundQueue {
+  private static final Log LOG = Log.get("Outbound");
+  private static final Log.Site SLOW_CONSUMER = LOG.site(Log.Level.WARN, 10);
+
+  public enum Policy { DROP_OLDEST, DROP_NEWEST, CLOSE }
+
+  static final int MAX_MESSAGES = Integer.getInteger("outbound.maxMessages", 1024);
+  static final long MAX_BYTES = Long.getLong("outbound.maxBytes", 4L << 20);
+  static final long HIGH_WATER_BYTES = Long.getLong("outbound.highWaterBytes", 1L << 20);
+  static final int MAX_BATCH = Integer.getInteger("outbound.maxBatch", 64);
+  static final Policy POLICY = Policy.valueOf(
+      System.getProperty("outbound.policy", "DROP_OLDEST").trim().toUpperCase(Locale.ROOT));
+  static final int CLOSE_CODE = Integer.getInteger("outbound.closeCode", 1013); // "try again later"
+  private static final long RETRY_MS = Long.getLong("outbound.retryMs", 10);
+
+  private static final MetricsRegistry.Counter DROPPED_TOTAL = MetricsRegistry.global()
+      .counter("ws_outbound_dropped_total", "Frames dropped because a client's outbound queue was full");
+  private static final MetricsRegistry.Counter SLOW_CLOSES = MetricsRegistry.global()
+      .counter("ws_slow_consumer_closes_total", "Connections closed by the slow-consumer policy");
+
+  // re-polls backlogged sockets; Java-WebSocket has no "write queue drained" callback
+  private static final ScheduledExecutorService RETRY = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "OutboundQueue-retry");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private final WebSocket conn;
+  private final Policy policy;
+  private final int maxMessages;
+  private final long maxBytes;
+  private final long highWaterBytes;
+  private final Runnable onSendFailure;
+
+  // guarded by this
+  private final ArrayDeque<Object> queue = new ArrayDeque<>(); // String or ByteBuffer
+  private long queuedBytes;
+  private boolean closed;
+
+  private final AtomicBoolean draining = new AtomicBoolean();
+  private final AtomicBoolean retryScheduled = new AtomicBoolean();
+  private final LongAdder dropped = new LongAdder();
+
+  public OutboundQueue(WebSocket conn, Runnable onSendFailure) {
+    this(conn, POLICY, MAX_MESSAGES, MAX_BYTES, HIGH_WATER_BYTES, onSendFailure);
+  }
+
+  OutboundQueue(WebSocket conn, Policy policy, int maxMessages, long maxBytes, long highWaterBytes,
+                Runnable onSendFailure) {
+    this.conn = conn;
+    this.policy = policy;
+    this.maxMessages = maxMessages;
+    this.maxBytes = maxBytes;
+    this.highWaterBytes = highWaterBytes;
+    this.onSendFailure = onSendFailure;
+  }
+
+  public void send(String text) {
+    offer(text, text.length());
+  }
+
+  public void send(ByteBuffer bytes) {
+    offer(bytes, bytes.remaining());
+  }
+
+  /** Frames dropped (or discarded by a policy close) for this connection. */
+  public long getDropped() {
+    return dropped.sum();
+  }
+
+  public synchronized int size() {
+    return queue.size();
+  }
+
+  private void offer(Object frame, int size) {
+    if (!conn.isOpen()) {
+      onSendFailure.run();
+      throw new WebsocketNotConnectedException();
+    }
+    boolean closeNow = false;
+    synchronized (this) {
+      if (closed) {
+        drop(1);
+        return;
+      }
+      while (!queue.isEmpty() && (queue.size() >= maxMessages || queuedBytes + size > maxBytes)) {
+        if (policy == Policy.DROP_NEWEST) {
+          drop(1);
+          SLOW_CONSUMER.log("Outbound queue full for {}, dropping newest", conn.getRemoteSocketAddress());
+          return;
+        }
+        if (policy == Policy.CLOSE) {
+          drop(queue.size() + 1);
+          queue.clear();
+          queuedBytes = 0;
+          closed = true;
+          closeNow = true;
+          break;
+        }
+        Object oldest = queue.pollFirst();
+        queuedBytes -= sizeOf(oldest);
+        drop(1);
+        SLOW_CONSUMER.log("Outbound queue full for {}, dropping oldest", conn.getRemoteSocketAddress());
+      }
+      if (!closeNow) {
+        queue.addLast(frame);
+        queuedBytes += size;
+      }
+    }
+    if (closeNow) {
+      SLOW_CLOSES.inc();
+      SLOW_CONSUMER.log("Outbound queue full for {}, closing with {}", conn.getRemoteSocketAddress(), CLOSE_CODE);
+      conn.close(CLOSE_CODE, "Slow consumer");
+      return;
+    }
+    drain();
+  }
+
+  private void drop(int n) {
+    dropped.add(n);
+    DROPPED_TOTAL.add(n);
+  }
+
+  // one drainer at a time keeps frames in order; a frame queued while the drainer is
+  // finishing is picked up by the re-check below
+  private void drain() {
+    while (draining.compareAndSet(false, true)) {
+      boolean backlogged;
+      try {
+        backlogged = drainWhileWritable();
+      } finally {
+        draining.set(false);
+      }
+      if (backlogged) {
+        scheduleRetry();
+        return;
+      }
+      synchronized (this) {
+        if (queue.isEmpty()) return;
+      }
+    }
+  }
+
+  /** Returns true if it stopped because the socket is above its high-water mark. */
+  private boolean drainWhileWritable() {
+    while (true) {
+      if (bufferedAmount() >= highWaterBytes) return true;
+      List<Object> batch;
+      synchronized (this) {
+        if (queue.isEmpty()) return false;
+        batch = new ArrayList<>(Math.min(queue.size(), MAX_BATCH));
+        while (batch.size() < MAX_BATCH && !queue.isEmpty()) {
+          Object f = queue.pollFirst();
+          queuedBytes -= sizeOf(f);
+          batch.add(f);
+        }
+      }
+      try {
+        write(batch);
+      } catch (WebsocketNotConnectedException e) {
+        for (int i = 0; i < batch.size(); i++) onSendFailure.run();
+        synchronized (this) {
+          closed = true;
+          queue.clear();
+          queuedBytes = 0;
+        }
+        return false;
+      }
+    }
+  }
+
+  private void write(List<Object> batch) {
+    if (batch.size() == 1) {
+      Object f = batch.get(0);
+      if (f instanceof String s) conn.send(s);
+      else conn.send((ByteBuffer) f);
+      return;
+    }
+    Draft draft = conn.getDraft();
+    List<Framedata> frames = new ArrayList<>(batch.size());
+    for (Object f : batch) {
+      frames.addAll(f instanceof String s ? draft.createFrames(s, false) : draft.createFrames((ByteBuffer) f, false));
+    }
+    conn.sendFrame(frames);
+  }
+
+  private void scheduleRetry() {
+    if (retryScheduled.compareAndSet(false, true)) {
+      RETRY.schedule(() -> {
+        retryScheduled.set(false);
+        if (conn.isOpen()) drain();
+      }, RETRY_MS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** Bytes sitting in Java-WebSocket's write queue (1.5.x has no getBufferedAmount()). */
+  private long bufferedAmount() {
+    if (!(conn instanceof WebSocketImpl impl)) return 0;
+    long total = 0;
+    for (ByteBuffer b : impl.outQueue) {
+      total += b.remaining();
+      if (total >= highWaterBytes) break;
+    }
+    return total;
+  }
+
+  private static int sizeOf(Object frame) {
+    return frame instanceof String s ? s.length() : ((ByteBuffer) frame).remaining();
+  }
+}
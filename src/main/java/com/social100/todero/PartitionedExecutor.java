@@ -0,0 +1,58 @@
+package com.social100.todero;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * N single-threaded lanes; tasks with the same key always run on the same lane,
+ * so they execute in submission order while different keys run in parallel.
+ */
+public class PartitionedExecutor {
+
+  private final ExecutorService[] lanes;
+
+  public PartitionedExecutor(String name, int partitions) {
+    if (partitions <= 0) throw new IllegalArgumentException("partitions must be > 0");
+    this.lanes = new ExecutorService[partitions];
+    for (int i = 0; i < partitions; i++) {
+      final String threadName = name + "-" + i;
+      lanes[i] = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, threadName);
+        t.setDaemon(true);
+        return t;
+      });
+    }
+  }
+
+  public int partitions() {
+    return lanes.length;
+  }
+
+  public void execute(String key, Runnable task) {
+    lanes[partitionOf(key)].execute(task);
+  }
+
+  int partitionOf(String key) {
+    if (key == null) return 0;
+    int h = key.hashCode();
+    return Math.floorMod(h ^ (h >>> 16), lanes.length);
+  }
+
+  /** Stops accepting tasks and waits up to timeoutMs for queued ones to finish. */
+  public void shutdown(long timeoutMs) {
+    for (ExecutorService lane : lanes) lane.shutdown();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    try {
+      for (ExecutorService lane : lanes) {
+        long left = deadline - System.nanoTime();
+        if (left <= 0 || !lane.awaitTermination(left, TimeUnit.NANOSECONDS)) {
+          lane.shutdownNow();
+        }
+      }
+    } catch (InterruptedException e) {
+      for (ExecutorService lane : lanes) lane.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -1,27 +1,77 @@
 package com.social100.todero;
 
+import com.social100.todero.metrics.Histogram;
+import com.social100.todero.metrics.MetricsRegistry;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.StreamEntryID;
 import redis.clients.jedis.params.XAddParams;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Publishes SEND_MESSAGE entries to the stream(s) read by the bridge.
+ *
+ * Calls are queued and a flusher thread sends them as one pipelined batch: it waits up to
+ * {@code lingerMicros} for concurrent publishes to join, or until {@code maxBatch} are queued.
+ */
 public class RedisPublisher implements AutoCloseable {
   private final String streamName;
   private final JedisPool pool;
+  private final ClusterRouting routing; // null -> single node, everything goes to streamName
 
   // timeouts: connect=1s, read/write=3s — match your bridge defaults
   private static final int CONNECT_TIMEOUT_MS = 1000;
   private static final int SO_TIMEOUT_MS = 3000;
   private static final String CLIENT_NAME = "ws-command-publisher";
 
+  // batching knobs (-Dpublisher.*)
+  private final int maxBatch = Integer.getInteger("publisher.maxBatch", 128);
+  private final long lingerMicros = Long.getLong("publisher.lingerMicros", 200);
+  private final BlockingQueue<PendingPublish> queue =
+      new ArrayBlockingQueue<>(Integer.getInteger("publisher.queueCapacity", 10_000));
+
+  private static final Histogram PUBLISH_LATENCY = MetricsRegistry.global()
+      .histogram("publisher_publish_latency_us", "RedisPublisher publish, from call to XADD reply");
+  private static final MetricsRegistry.Counter PUBLISH_FAILURES = MetricsRegistry.global()
+      .counter("publisher_publish_failures_total", "Publishes that completed exceptionally");
+
+  private final Thread flusher;
+  private volatile boolean running = true;
+
+  private record PendingPublish(Map<String, String> fields, String clientId, CompletableFuture<String> result) {}
+
   public RedisPublisher(String host, int port, String streamName) {
+    this(host, port, streamName, null);
+  }
+
+  public RedisPublisher(String host, int port, String streamName, ClusterRouting routing) {
+    this(streamName, routing, newPool(host, port));
+  }
+
+  RedisPublisher(String streamName, ClusterRouting routing, JedisPool pool) {
     this.streamName = streamName;
+    this.routing = routing;
+    this.pool = pool;
+
+    this.flusher = new Thread(this::flushLoop, "RedisPublisher-flusher");
+    this.flusher.setDaemon(true);
+    this.flusher.start();
+  }
 
+  private static JedisPool newPool(String host, int port) {
     JedisPoolConfig poolConfig = new JedisPoolConfig();
     poolConfig.setMaxTotal(8);
     poolConfig.setMaxIdle(8);
@@ -32,7 +82,7 @@ public class RedisPublisher implements AutoCloseable {
     poolConfig.setMinEvictableIdleDuration(Duration.ofSeconds(30));
     poolConfig.setMaxWait(Duration.ofSeconds(2));
 
-    this.pool = new JedisPool(
+    return new JedisPool(
         poolConfig, host, port,
         CONNECT_TIMEOUT_MS, SO_TIMEOUT_MS,
         null, 0, CLIENT_NAME
@@ -40,24 +90,42 @@ public class RedisPublisher implements AutoCloseable {
   }
 
   /**
-   * Publish to the stream with the fields your bridge expects.
+   * Queue an entry with the fields your bridge expects; completes with the XADD id.
    * Optionally include extra fields if you pass them.
    */
+  public CompletableFuture<String> publishAsync(String fromClientId, String clientId, String data,
+                                                Map<String, String> extraFields) {
+    Map<String, String> fields = new HashMap<>();
+    if (fromClientId != null) fields.put("from", fromClientId);
+    if (clientId != null) fields.put("client_id", clientId);
+    if (data != null)     fields.put("data", data);
+    if (extraFields != null) fields.putAll(extraFields);
+
+    CompletableFuture<String> result = new CompletableFuture<>();
+    long start = System.nanoTime();
+    result.whenComplete((id, ex) -> {
+      PUBLISH_LATENCY.record((System.nanoTime() - start) / 1_000);
+      if (ex != null) PUBLISH_FAILURES.inc();
+    });
+    if (!running) {
+      result.completeExceptionally(new IllegalStateException("publisher closed"));
+    } else if (!queue.offer(new PendingPublish(fields, clientId, result))) {
+      result.completeExceptionally(new IllegalStateException("publisher queue full"));
+    }
+    return result;
+  }
+
+  public CompletableFuture<String> publishAsync(String fromClientId, String clientId, String data) {
+    return publishAsync(fromClientId, clientId, data, null);
+  }
+
+  /** Blocking publish; joins the next batch and waits for its XADD id. */
   public String publish(String fromClientId, String clientId, String data, Map<String, String> extraFields) {
-    try (Jedis jedis = pool.getResource()) {
-      // optional immediate connectivity check; cheap + helps fail fast
-      jedis.ping();
-
-      Map<String, String> fields = new HashMap<>();
-      if (fromClientId != null) fields.put("from", fromClientId);
-      if (clientId != null) fields.put("client_id", clientId);
-      if (data != null)     fields.put("data", data);
-      if (extraFields != null) fields.putAll(extraFields);
-
-      // keep stream from growing unbounded (approximate trim)
-      XAddParams params = new XAddParams().approximateTrimming().maxLen(10_000);
-      StreamEntryID id = jedis.xadd(streamName, fields, params);
-      return id.toString();
+    try {
+      return publishAsync(fromClientId, clientId, data, extraFields).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException re) throw re;
+      throw e;
     }
   }
 
@@ -65,7 +133,95 @@ public class RedisPublisher implements AutoCloseable {
     return publish(fromClientId, clientId, data, null);
   }
 
+  private void flushLoop() {
+    List<PendingPublish> batch = new ArrayList<>(maxBatch);
+    while (running || !queue.isEmpty()) {
+      try {
+        PendingPublish first = queue.poll(200, TimeUnit.MILLISECONDS);
+        if (first == null) continue;
+        batch.add(first);
+
+        // linger briefly so concurrent publishers share the round-trip
+        long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(lingerMicros);
+        queue.drainTo(batch, maxBatch - batch.size());
+        while (batch.size() < maxBatch) {
+          long left = deadline - System.nanoTime();
+          if (left <= 0) break;
+          PendingPublish next = queue.poll(left, TimeUnit.NANOSECONDS);
+          if (next == null) break;
+          batch.add(next);
+          queue.drainTo(batch, maxBatch - batch.size());
+        }
+
+        flush(batch);
+      } catch (InterruptedException e) {
+        for (PendingPublish p : batch) p.result().completeExceptionally(new IllegalStateException("publisher closed"));
+        if (!running) break;
+      } catch (Exception e) {
+        for (PendingPublish p : batch) p.result().completeExceptionally(e);
+      } finally {
+        batch.clear();
+      }
+    }
+    // anything left after close() is failed rather than silently dropped
+    PendingPublish p;
+    while ((p = queue.poll()) != null) {
+      p.result().completeExceptionally(new IllegalStateException("publisher closed"));
+    }
+  }
+
+  private void flush(List<PendingPublish> batch) {
+    // keep stream from growing unbounded (approximate trim)
+    XAddParams params = new XAddParams().approximateTrimming().maxLen(10_000);
+
+    try (Jedis jedis = pool.getResource()) {
+      List<String> targets = targetStreams(jedis, batch);
+
+      Pipeline pipeline = jedis.pipelined();
+      List<Response<StreamEntryID>> ids = new ArrayList<>(batch.size());
+      for (int i = 0; i < batch.size(); i++) {
+        ids.add(pipeline.xadd(targets.get(i), batch.get(i).fields(), params));
+      }
+      pipeline.sync();
+
+      for (int i = 0; i < batch.size(); i++) {
+        try {
+          batch.get(i).result().complete(ids.get(i).get().toString());
+        } catch (RuntimeException e) {
+          batch.get(i).result().completeExceptionally(e); // per-entry error, e.g. WRONGTYPE
+        }
+      }
+    }
+  }
+
+  // owning node's inbound stream when the client is connected somewhere, else the shared stream.
+  // All owners for the batch are looked up in one pipelined round-trip.
+  private List<String> targetStreams(Jedis jedis, List<PendingPublish> batch) {
+    List<String> targets = new ArrayList<>(batch.size());
+    if (routing == null) {
+      for (int i = 0; i < batch.size(); i++) targets.add(streamName);
+      return targets;
+    }
+
+    Pipeline pipeline = jedis.pipelined();
+    List<Response<String>> owners = new ArrayList<>(batch.size());
+    for (PendingPublish p : batch) {
+      owners.add(p.clientId() == null ? null
+          : pipeline.hget(routing.routesKey(), WebSocketRelayServer.extractGlobalClientIdOnly(p.clientId())));
+    }
+    pipeline.sync();
+
+    for (Response<String> owner : owners) {
+      String node = owner == null ? null : owner.get();
+      targets.add(node == null ? streamName : routing.streamFor(node));
+    }
+    return targets;
+  }
+
   @Override public void close() {
+    running = false;
+    flusher.interrupt();
+    try { flusher.join(1000); } catch (InterruptedException ignored) {}
     try { pool.close(); } catch (Exception ignored) {}
   }
-}
\ No newline at end of file
+}
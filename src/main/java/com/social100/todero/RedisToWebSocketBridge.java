@@ -1,17 +1,34 @@
 package com.social100.todero;
 
-import com.social100.todero.cmd.CmdArgs;
+import com.social100.todero.cmd.CommandFramework;
+import com.social100.todero.log.Log;
+import com.social100.todero.metrics.Histogram;
+import com.social100.todero.metrics.MetricsHttpServer;
+import com.social100.todero.metrics.MetricsRegistry;
 import redis.clients.jedis.*;
+import redis.clients.jedis.params.XAddParams;
+import redis.clients.jedis.params.XAutoClaimParams;
+import redis.clients.jedis.params.XPendingParams;
 import redis.clients.jedis.params.XReadGroupParams;
 import redis.clients.jedis.StreamEntryID;
 import redis.clients.jedis.resps.StreamEntry;
+import redis.clients.jedis.resps.StreamPendingEntry;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadLocalRandom;
 
 public class RedisToWebSocketBridge {
+    private static final Log LOG = Log.get("Bridge");
+    private static final Log.Site SKIPPED = LOG.site(Log.Level.WARN, 10);
+    private static final Log.Site SEND_FAILED = LOG.site(Log.Level.WARN, 20);
 
     private final String redisHost;
     private final int redisPort;
@@ -26,7 +43,58 @@ public class RedisToWebSocketBridge {
     // timeouts: connect=1s, read/write (soTimeout)=3s
     final int CONNECT_TIMEOUT_MS = 1000;
     final int SO_TIMEOUT_MS = 3000;
-    final int BLOCK_MS = 2000; // <= SO_TIMEOUT_MS; leave a cushion
+
+    // XREADGROUP tuning; override with -Dbridge.batchCount / -Dbridge.blockMs or the setters (before start)
+    private int batchCount = Integer.getInteger("bridge.batchCount", 16);
+    private int blockMs = Integer.getInteger("bridge.blockMs", 2000); // soTimeout is kept above this
+
+    // delivery lanes, partitioned by client_id (or topic) so each recipient keeps its order
+    private int workerCount = Integer.getInteger("bridge.workers", Runtime.getRuntime().availableProcessors());
+    PartitionedExecutor workers;
+    Semaphore inFlight;                        // caps entries read but not yet delivered
+    private final Queue<Delivered> delivered = new ConcurrentLinkedQueue<>(); // ready to XACK
+
+    // entries re-routed to another node more than this are delivered (or dropped) locally
+    private static final int MAX_HOPS = 2;
+
+    // At-least-once (-Dbridge.atLeastOnce=true): an entry is XACKed only once the client answered
+    // the SEND_MESSAGE. Unanswered entries stay pending; the reclaim loop re-delivers those idle
+    // longer than reclaimIdleMs and, after maxAttempts deliveries, moves them to <stream>:dead.
+    // An entry the client answers with an ERROR frame goes to <stream>:dead right away.
+    private boolean atLeastOnce = Boolean.getBoolean("bridge.atLeastOnce");
+    private long reclaimIdleMs = Long.getLong("bridge.reclaimIdleMs", 60_000);       // keep above the bus timeout
+    private long reclaimIntervalMs = Long.getLong("bridge.reclaimIntervalMs", 5_000);
+    private int maxAttempts = Integer.getInteger("bridge.maxAttempts", 5);
+    private Thread reclaimThread;
+
+    // Where a newly created group starts reading the shared stream (-Dbridge.startFrom): "last"
+    // (new entries only), "first" (the whole stream), an entry id (entries after it) or an
+    // ISO-8601 instant (entries from then on). It is ignored once the group exists, i.e. on every
+    // restart after the first; move an existing group with XGROUP SETID instead.
+    private String startFrom = System.getProperty("bridge.startFrom", "last");
+    private boolean startFromIgnoredLogged;    // listener thread only
+
+    // Catch-up: after each (re)connect the backlog is drained with large non-blocking reads,
+    // reporting progress every catchUpReportMs, before dropping to batchCount/blockMs for live
+    // traffic. -Dbridge.catchUpBatchCount=0 skips it.
+    private int catchUpBatchCount = Integer.getInteger("bridge.catchUpBatchCount", 1000);
+    private long catchUpReportMs = Long.getLong("bridge.catchUpReportMs", 5_000);
+    volatile long catchUpLag;                  // last lag XINFO reported while catching up; 0 once live
+
+    private record Delivered(String stream, StreamEntryID id) {}
+
+    private static final Histogram BATCH_SIZE = MetricsRegistry.global()
+            .histogram("bridge_xreadgroup_batch_size", "Entries returned per XREADGROUP call");
+    private static final Histogram DELIVERY_LATENCY = MetricsRegistry.global()
+            .histogram("bridge_delivery_latency_ms", "Stream entry id timestamp to WebSocket send");
+    private static final MetricsRegistry.Counter DELIVERED = MetricsRegistry.global()
+            .counter("bridge_delivered_total", "Entries written to a local WebSocket");
+    private static final MetricsRegistry.Counter UNCONFIRMED = MetricsRegistry.global()
+            .counter("bridge_unconfirmed_total", "At-least-once deliveries the client did not confirm (left pending)");
+    private static final MetricsRegistry.Counter RECLAIMED = MetricsRegistry.global()
+            .counter("bridge_reclaimed_total", "Pending entries re-delivered by XAUTOCLAIM");
+    private static final MetricsRegistry.Counter DEAD_LETTERED = MetricsRegistry.global()
+            .counter("bridge_dead_lettered_total", "Entries moved to the dead-letter stream (rejected, or after maxAttempts)");
 
     // Optional: set a client name to help debugging on the Redis side
     final String CLIENT_NAME = "redis-ws-bridge";
@@ -47,6 +115,76 @@ public class RedisToWebSocketBridge {
         this.groupName = groupName;
         this.consumerName = consumerName;
         this.wsServer = wsServer;
+        MetricsRegistry.global().gauge("bridge_catchup_lag", "Entries behind the stream tail while catching up",
+                () -> catchUpLag);
+    }
+
+    public void setBatchCount(int batchCount) {
+        if (batchCount <= 0) throw new IllegalArgumentException("batchCount must be > 0");
+        this.batchCount = batchCount;
+    }
+
+    public void setBlockMs(int blockMs) {
+        if (blockMs < 0) throw new IllegalArgumentException("blockMs must be >= 0");
+        this.blockMs = blockMs;
+    }
+
+    public void setWorkerCount(int workerCount) {
+        if (workerCount <= 0) throw new IllegalArgumentException("workerCount must be > 0");
+        this.workerCount = workerCount;
+    }
+
+    public void setAtLeastOnce(boolean atLeastOnce) {
+        this.atLeastOnce = atLeastOnce;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts <= 0) throw new IllegalArgumentException("maxAttempts must be > 0");
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setReclaimIdleMs(long reclaimIdleMs) {
+        if (reclaimIdleMs <= 0) throw new IllegalArgumentException("reclaimIdleMs must be > 0");
+        this.reclaimIdleMs = reclaimIdleMs;
+    }
+
+    public void setStartFrom(String startFrom) {
+        startIdFor(startFrom); // validate now rather than on the first connect
+        this.startFrom = startFrom;
+    }
+
+    public void setCatchUpBatchCount(int catchUpBatchCount) {
+        if (catchUpBatchCount < 0) throw new IllegalArgumentException("catchUpBatchCount must be >= 0");
+        this.catchUpBatchCount = catchUpBatchCount;
+    }
+
+    /** Maps a {@code bridge.startFrom} value to the id XGROUP CREATE takes as "last delivered". */
+    static StreamEntryID startIdFor(String spec) {
+        String s = spec == null ? "" : spec.trim();
+        switch (s.toLowerCase(Locale.ROOT)) {
+            case "last", "$":
+                return StreamEntryID.XGROUP_LAST_ENTRY;
+            case "first", "0":
+                return new StreamEntryID();
+            default:
+                break;
+        }
+        if (s.matches("\\d+(-\\d+)?")) {
+            return new StreamEntryID(s.contains("-") ? s : s + "-0");
+        }
+        try {
+            long millis = java.time.Instant.parse(s).toEpochMilli();
+            // ids are <ms>-<seq>: everything before the instant counts as delivered
+            return millis <= 0 ? new StreamEntryID() : new StreamEntryID(millis - 1, Long.MAX_VALUE);
+        } catch (java.time.format.DateTimeParseException e) {
+            throw new IllegalArgumentException(
+                    "bridge.startFrom must be last, first, an entry id or an ISO-8601 instant: " + spec);
+        }
+    }
+
+    // a blocked XREADGROUP must return before the socket read times out; leave a 1s cushion
+    private int soTimeoutMs() {
+        return Math.max(SO_TIMEOUT_MS, blockMs + 1000);
     }
 
     public void start() {
@@ -55,7 +193,8 @@ public class RedisToWebSocketBridge {
         // Configure once (e.g., in constructor/init)
         JedisPoolConfig poolConfig = new JedisPoolConfig();
         // reasonable pool limits; tweak as you like
-        poolConfig.setMaxTotal(8);
+        // listener + delivery lanes that may re-route entries to another node
+        poolConfig.setMaxTotal(Math.max(8, workerCount + 3)); // + reclaim loop
         poolConfig.setMaxIdle(8);
         poolConfig.setMinIdle(0);
 
@@ -71,15 +210,24 @@ public class RedisToWebSocketBridge {
                 redisHost,
                 redisPort,
                 CONNECT_TIMEOUT_MS,
-                SO_TIMEOUT_MS,
+                soTimeoutMs(),
                 null,          // password
                 0,             // database
                 CLIENT_NAME    // clientName
         );
 
+        workers = new PartitionedExecutor("bridge-delivery", workerCount);
+        // room for a whole catch-up batch in flight while the next one is read
+        inFlight = new Semaphore(Math.max(Math.max(workerCount, 4) * batchCount, 2 * catchUpBatchCount));
+
         running = true;
         listenerThread = new Thread(this::listenLoop, "RedisToWebSocketBridge");
         listenerThread.start();
+        if (atLeastOnce) {
+            reclaimThread = new Thread(this::reclaimLoop, "RedisToWebSocketBridge-reclaim");
+            reclaimThread.setDaemon(true);
+            reclaimThread.start();
+        }
     }
 
     public void stop() {
@@ -88,22 +236,50 @@ public class RedisToWebSocketBridge {
             listenerThread.interrupt();
             try { listenerThread.join(1000); } catch (InterruptedException ignored) {}
         }
+        if (reclaimThread != null) {
+            reclaimThread.interrupt();
+            try { reclaimThread.join(1000); } catch (InterruptedException ignored) {}
+        }
+        if (workers != null) {
+            workers.shutdown(1000);
+        }
         if (jedisPool != null) {
+            // ACK whatever the workers finished after the listener stopped
+            try (Jedis jedis = jedisPool.getResource()) {
+                ackDelivered(jedis);
+            } catch (Exception e) {
+                LOG.warn("Final XACK failed: {}", e.getMessage());
+            }
             try { jedisPool.close(); } catch (Exception ignored) {}
         }
     }
 
-    private void ensureGroupExists(Jedis jedis) {
+    // the shared stream plus, in cluster mode, this node's own inbound stream
+    private List<String> inputStreams() {
+        ClusterRouting routing = wsServer.getRouting();
+        return routing == null ? List.of(streamName) : List.of(streamName, routing.inboundStream());
+    }
+
+    private void ensureGroupExists(Jedis jedis, String streamName) {
+        // A node's own stream only ever holds entries addressed to it, so read it from the start.
+        ClusterRouting routing = wsServer.getRouting();
+        boolean ownStream = routing != null && streamName.equals(routing.inboundStream());
         try {
-            // Create group at the end of the stream if it doesn't exist.
-            // Using LAST_ENTRY keeps new consumers from reprocessing backlog unless desired.
-            jedis.xgroupCreate(streamName, groupName, StreamEntryID.LAST_ENTRY, true);
-            System.out.println("[RedisToWebSocketBridge] Created consumer group '" + groupName + "' for stream '" + streamName + "'.");
+            // Create the group at the configured start position if it doesn't exist.
+            // The default, "$", keeps new consumers from reprocessing backlog unless desired.
+            StreamEntryID start = ownStream ? new StreamEntryID() : startIdFor(startFrom);
+            jedis.xgroupCreate(streamName, groupName, start, true);
+            LOG.info("Created consumer group '{}' for stream '{}' after {}.", groupName, streamName, start);
         } catch (Exception e) {
             String msg = e.getMessage();
             if (msg != null && msg.contains("BUSYGROUP")) {
                 // Group already exists—expected on restarts.
-                System.out.println("[RedisToWebSocketBridge] Consumer group already exists, continuing.");
+                LOG.debug("Consumer group already exists on {}, continuing.", streamName);
+                if (!ownStream && !"last".equalsIgnoreCase(startFrom.trim()) && !startFromIgnoredLogged) {
+                    startFromIgnoredLogged = true;
+                    LOG.info("bridge.startFrom={} ignored: group '{}' already exists on {} (use XGROUP SETID to move it)",
+                            startFrom, groupName, streamName);
+                }
             } else {
                 throw e;
             }
@@ -111,13 +287,17 @@ public class RedisToWebSocketBridge {
     }
 
     private void listenLoop() {
-        XReadGroupParams params = XReadGroupParams.xReadGroupParams()
-                .count(16)
-                .block(BLOCK_MS);
-
-        Map<String, StreamEntryID> streams = java.util.Collections.singletonMap(
-                streamName, StreamEntryID.UNRECEIVED_ENTRY
-        );
+        XReadGroupParams liveParams = XReadGroupParams.xReadGroupParams()
+                .count(batchCount)
+                .block(blockMs);
+        // no BLOCK: an empty or short reply means the backlog is drained
+        XReadGroupParams catchUpParams = XReadGroupParams.xReadGroupParams()
+                .count(Math.max(catchUpBatchCount, 1));
+
+        Map<String, StreamEntryID> streams = new java.util.LinkedHashMap<>();
+        for (String stream : inputStreams()) {
+            streams.put(stream, StreamEntryID.XREADGROUP_UNDELIVERED_ENTRY);
+        }
 
         long backoffMs = 500;                 // start small
         final long MAX_BACKOFF_MS = 10_000;
@@ -128,91 +308,96 @@ public class RedisToWebSocketBridge {
                 try {
                     jedis.ping();
                 } catch (redis.clients.jedis.exceptions.JedisConnectionException e) {
-                    System.err.println("[Bridge] PING failed (connect issue): " + e.getMessage());
+                    LOG.warn("PING failed (connect issue): {}", e.getMessage());
                     throw e; // go to outer catch -> backoff -> retry
                 }
 
                 // Only ensure the group after we know the connection is healthy
-                ensureGroupExists(jedis);
+                for (String stream : streams.keySet()) {
+                    ensureGroupExists(jedis, stream);
+                }
 
-                System.out.println("[Bridge] Listening on " + streamName +
-                        " as " + groupName + "/" + consumerName + " ...");
+                LOG.info("Listening on {} as {}/{} ...", streams.keySet(), groupName, consumerName);
 
                 // Reset backoff after a successful connect
                 backoffMs = 500;
 
+                CatchUp catchUp = catchUpBatchCount > 0 ? new CatchUp(jedis, streams.keySet()) : null;
+
                 while (running) {
                     List<Map.Entry<String, List<StreamEntry>>> entries;
 
+                    // ACK what the workers delivered since the last read (one multi-ID XACK)
+                    ackDelivered(jedis);
+
                     try {
                         // This call will:
-                        // - block up to BLOCK_MS for new entries
+                        // - block up to blockMs for new entries
                         // - OR throw JedisConnectionException if socket read timeout elapses
-                        entries = jedis.xreadGroup(groupName, consumerName, params, streams);
+                        entries = jedis.xreadGroup(groupName, consumerName,
+                                catchUp != null ? catchUpParams : liveParams, streams);
 
                     } catch (redis.clients.jedis.exceptions.JedisConnectionException e) {
                         // Broken connection (RST/FIN, DNS issues, read timeout, etc.) -> reconnect
                         if (isTimeout(e)) {
-                            System.err.println("[Bridge] Redis read/connect timed out; will reconnect");
+                            LOG.warn("Redis read/connect timed out; will reconnect");
                         } else {
-                            System.err.println("[Bridge] Redis connection error: " + e.getMessage());
+                            LOG.warn("Redis connection error: {}", e.getMessage());
                         }
                         break; // break inner loop -> close Jedis -> backoff & retry
 
                     } catch (redis.clients.jedis.exceptions.JedisDataException e) {
                         // e.g., group/stream issues (BUSYGROUP should be handled above)
-                        System.err.println("[Bridge] Redis data error: " + e.getMessage());
+                        LOG.warn("Redis data error: {}", e.getMessage());
                         break;
 
                     } catch (Exception e) {
                         // Any other runtime issue; log and decide policy
-                        System.err.println("[Bridge] Unexpected error in xreadGroup: " + e);
+                        LOG.error("Unexpected error in xreadGroup", e);
                         break;
                     }
 
                     if (entries == null || entries.isEmpty()) {
-                        // No messages within BLOCK_MS -> loop again, checks `running` promptly
+                        if (catchUp != null) {
+                            catchUp.finish();
+                            catchUp = null;
+                        }
+                        // No messages within blockMs -> loop again, checks `running` promptly
                         continue;
                     }
 
-                    // Process & ACK
+                    int batchSize = 0;
+                    int largest = 0;
+                    for (Map.Entry<String, List<StreamEntry>> stream : entries) {
+                        batchSize += stream.getValue().size();
+                        largest = Math.max(largest, stream.getValue().size());
+                    }
+                    BATCH_SIZE.record(batchSize);
+
+                    // Hand each entry to its recipient's lane; workers report back via `delivered`
                     for (Map.Entry<String, List<StreamEntry>> stream : entries) {
+                        String source = stream.getKey();
                         for (StreamEntry entry : stream.getValue()) {
-                            String fromClientId = entry.getFields().get("from");
-                            String clientId = entry.getFields().get("client_id");
-                            String data = entry.getFields().get("data");
-
-                            if (data == null) {
-                                System.out.println("[Bridge] Skipping entry without 'data': " + entry.getID());
-                                jedis.xack(streamName, groupName, entry.getID());
-                                continue;
-                            }
-
-                            /*
-                            if (fromClientId == null || fromClientId.isEmpty() || clientId == null || clientId.isEmpty()) {
-                              System.err.println("[Bridge] No source/target clientId provided for message : '" + data + "'");
-                              continue;
-                            }*/
-
-                            try {
-                                String[] args = CmdArgs.sendMessageArgs(fromClientId, clientId, data);
-                                wsServer.sendToClientId(clientId, args);
-                                System.out.println("[Bridge] WS broadcast -> " + data);
-                                jedis.xack(streamName, groupName, entry.getID());
-                            } catch (Exception ex) {
-                                System.err.println("[Bridge] WS send failed: " + ex.getMessage());
-                                // POLICY: ACK or not?
-                                // - If you need at-least-once to WS, DO NOT ACK here and add retry/DLQ.
-                                // - If you prefer to avoid retries/PEL growth, ACK here.
-                                jedis.xack(streamName, groupName, entry.getID());
-                            }
+                            inFlight.acquire(); // backpressure when workers fall behind
+                            dispatch(source, entry);
+                        }
+                    }
+
+                    if (catchUp != null) {
+                        catchUp.read(batchSize);
+                        // COUNT applies per stream: every stream came back short, so all are drained
+                        if (largest < catchUpBatchCount) {
+                            catchUp.finish();
+                            catchUp = null;
+                        } else {
+                            catchUp.maybeReport(jedis);
                         }
                     }
                 }
 
             } catch (Exception e) {
                 if (!running) break;
-                System.err.println("[Bridge] Error (outside read loop): " + e.getMessage());
+                LOG.warn("Error (outside read loop): {}", e.getMessage());
             }
 
             // Exponential backoff with jitter before reconnecting
@@ -220,7 +405,7 @@ public class RedisToWebSocketBridge {
             try {
                 long jitter = ThreadLocalRandom.current().nextLong(100, 300);
                 long sleepMs = Math.min(backoffMs, MAX_BACKOFF_MS) + jitter;
-                System.err.println("[Bridge] Reconnecting in ~" + sleepMs + " ms");
+                LOG.info("Reconnecting in ~{} ms", sleepMs);
                 Thread.sleep(sleepMs);
             } catch (InterruptedException ignored) {
                 Thread.currentThread().interrupt();
@@ -229,7 +414,353 @@ public class RedisToWebSocketBridge {
             backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
         }
 
-        System.out.println("[Bridge] Stopped.");
+        LOG.info("Stopped.");
+    }
+
+    // Progress of one catch-up phase; lives on the listener thread only.
+    final class CatchUp {
+        private final java.util.Collection<String> streams;
+        private final long startedAt = System.currentTimeMillis();
+        private long lastReport = startedAt;
+        private long read;
+
+        CatchUp(Jedis jedis, java.util.Collection<String> streams) {
+            this.streams = streams;
+            catchUpLag = lag(jedis);
+            LOG.info("Catching up on {}: lag {}", streams, catchUpLag < 0 ? "unknown" : catchUpLag);
+        }
+
+        void read(int entries) {
+            read += entries;
+        }
+
+        void maybeReport(Jedis jedis) {
+            long now = System.currentTimeMillis();
+            if (now - lastReport < catchUpReportMs) return;
+            lastReport = now;
+            catchUpLag = lag(jedis);
+            LOG.info("Catching up: {} entries read ({}/s), lag {}", read, rate(now),
+                    catchUpLag < 0 ? "unknown" : catchUpLag);
+        }
+
+        void finish() {
+            catchUpLag = 0;
+            LOG.info("Caught up: {} entries in {} ms ({}/s); switching to live reads",
+                    read, System.currentTimeMillis() - startedAt, rate(System.currentTimeMillis()));
+        }
+
+        private long rate(long now) {
+            return read * 1000 / Math.max(1, now - startedAt);
+        }
+
+        // the group's "lag" from XINFO GROUPS (Redis 7+), summed over the streams; -1 if unknown
+        long lag(Jedis jedis) {
+            long total = 0;
+            try {
+                for (String stream : streams) {
+                    Object lag = null;
+                    for (redis.clients.jedis.resps.StreamGroupInfo group : jedis.xinfoGroups(stream)) {
+                        if (groupName.equals(group.getName())) lag = group.getGroupInfo().get("lag");
+                    }
+                    if (!(lag instanceof Long)) return -1;
+                    total += (Long) lag;
+                }
+            } catch (redis.clients.jedis.exceptions.JedisDataException e) {
+                return -1;
+            }
+            return total;
+        }
+    }
+
+    // Hands the entry to its recipient's lane (caller holds an inFlight permit). The entry is
+    // queued for XACK right after the send, or in at-least-once mode once the client confirmed it.
+    void dispatch(String source, StreamEntry entry) {
+        String lane = laneKey(entry);
+        workers.execute(lane, () -> {
+            if (lane == null) {
+                try {
+                    malformed(source, entry);
+                } finally {
+                    inFlight.release();
+                }
+                return;
+            }
+            CompletableFuture<?> confirmed;
+            try {
+                confirmed = deliver(entry);
+            } finally {
+                inFlight.release();
+            }
+            Delivered d = new Delivered(source, entry.getID());
+            if (confirmed == null) {
+                delivered.add(d);
+            } else {
+                confirmed.whenComplete((r, ex) -> {
+                    Throwable cause = ex instanceof java.util.concurrent.CompletionException && ex.getCause() != null
+                            ? ex.getCause() : ex;
+                    if (ex == null) {
+                        delivered.add(d);
+                    } else if (cause instanceof CommandFramework.CommandErrorException) {
+                        // retrying won't change the answer; leave the WebSocket thread before touching Redis
+                        String error = cause.getMessage();
+                        workers.execute(lane, () -> rejected(source, entry, error));
+                    } else {
+                        UNCONFIRMED.inc(); // stays in the PEL; the reclaim loop retries it
+                    }
+                });
+            }
+        });
+    }
+
+    // Topic entries carry no client_id; keying them by topic keeps each topic ordered without
+    // sending every broadcast through the same lane.
+    static String laneKey(StreamEntry entry) {
+        String clientId = entry.getFields().get("client_id");
+        return clientId != null ? clientId : entry.getFields().get("topic");
+    }
+
+    /**
+     * Writes the entry to its local recipients (or forwards it). Returns null when the entry can
+     * be ACKed now, otherwise a future that completes once every recipient answered.
+     */
+    private CompletableFuture<?> deliver(StreamEntry entry) {
+        String fromClientId = entry.getFields().get("from");
+        String clientId = entry.getFields().get("client_id");
+        String data = entry.getFields().get("data");
+
+        if (data == null) {
+            SKIPPED.log("Skipping entry without 'data': {}", entry.getID());
+            return null;
+        }
+
+        /*
+        if (fromClientId == null || fromClientId.isEmpty() || clientId == null || clientId.isEmpty()) {
+          System.err.println("[Bridge] No source/target clientId provided for message : '" + data + "'");
+          return;
+        }*/
+
+        String topic = entry.getFields().get("topic");
+        List<CompletableFuture<CommandFramework.CommandMessage>> responses = atLeastOnce ? new ArrayList<>(1) : null;
+
+        try {
+            if (topic != null) {
+                // subscribers may be on several nodes: deliver here and forward to the rest
+                ClusterRouting routing = wsServer.getRouting();
+                if (routing != null) forwardToNodes(entry, () -> routing.nodesForTopic(topic));
+                if (wsServer.sendMessageToTopic(fromClientId, topic, data, responses) == 0) return null;
+            } else if (WebSocketRelayServer.isUserAddress(clientId)) {
+                // the user's devices may be spread over several nodes: deliver here and forward to the rest
+                ClusterRouting routing = wsServer.getRouting();
+                if (routing != null) forwardToNodes(entry, () -> routing.nodesForUser(clientId));
+                if (wsServer.sendMessageToUser(fromClientId, clientId, data, responses) == 0) return null;
+            } else if (!wsServer.sendMessageToClientId(fromClientId, clientId, data, responses)) {
+                if (!rerouteToOwner(entry, clientId)) park(fromClientId, clientId, data);
+                return null;
+            }
+            DELIVERED.inc();
+            DELIVERY_LATENCY.record(System.currentTimeMillis() - entry.getID().getTime());
+            LOG.debug("WS delivered {} to {} -> {}", entry.getID(), clientId, data);
+        } catch (Exception ex) {
+            SEND_FAILED.log("WS send to {} failed: {}", clientId, ex.getMessage());
+            // at-most-once: ACK anyway; at-least-once: leave it pending for the reclaim loop
+            return atLeastOnce ? CompletableFuture.failedFuture(ex) : null;
+        }
+        if (responses == null || responses.isEmpty()) return null;
+        return responses.size() == 1 ? responses.get(0) : CompletableFuture.allOf(responses.toArray(new CompletableFuture[0]));
+    }
+
+    // Periodically takes over entries that stayed pending (unconfirmed, or left behind by a dead
+    // consumer) and re-delivers them, or dead-letters them once they used up their attempts.
+    private void reclaimLoop() {
+        while (running) {
+            try {
+                Thread.sleep(reclaimIntervalMs);
+                for (String stream : inputStreams()) {
+                    reclaim(stream);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                if (!running) break;
+                LOG.warn("Reclaim failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void reclaim(String stream) throws InterruptedException {
+        StreamEntryID cursor = new StreamEntryID();
+        do {
+            List<StreamEntry> claimed;
+            Map<StreamEntryID, Long> attempts = new java.util.HashMap<>();
+            try (Jedis jedis = jedisPool.getResource()) {
+                Map.Entry<StreamEntryID, List<StreamEntry>> page = jedis.xautoclaim(stream, groupName, consumerName,
+                        reclaimIdleMs, cursor, XAutoClaimParams.xAutoClaimParams().count(batchCount));
+                cursor = page.getKey();
+                claimed = new ArrayList<>(page.getValue().size());
+                for (StreamEntry e : page.getValue()) {
+                    if (e != null && e.getFields() != null) claimed.add(e); // deleted entries come back empty
+                }
+                if (claimed.isEmpty()) continue;
+
+                // XAUTOCLAIM does not report delivery counts; one XPENDING over the claimed range does
+                XPendingParams range = XPendingParams.xPendingParams(
+                        claimed.get(0).getID(), claimed.get(claimed.size() - 1).getID(), claimed.size())
+                        .consumer(consumerName);
+                for (StreamPendingEntry p : jedis.xpending(stream, groupName, range)) {
+                    attempts.put(p.getID(), p.getDeliveredTimes());
+                }
+
+                List<StreamEntry> dead = new ArrayList<>();
+                for (StreamEntry e : claimed) {
+                    if (attempts.getOrDefault(e.getID(), 1L) > maxAttempts) dead.add(e);
+                }
+                if (!dead.isEmpty()) {
+                    deadLetter(jedis, stream, dead, attempts, "after " + maxAttempts + " attempts");
+                    claimed.removeAll(dead);
+                }
+            }
+            RECLAIMED.add(claimed.size());
+            for (StreamEntry entry : claimed) {
+                inFlight.acquire();
+                dispatch(stream, entry);
+            }
+        } while (running && !new StreamEntryID().equals(cursor));
+    }
+
+    // The client answered the delivery with an ERROR: dead-letter it now instead of waiting out the retries.
+    private void rejected(String stream, StreamEntry entry, String error) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            deadLetter(jedis, stream, List.of(entry), Map.of(entry.getID(), 1L), "rejected by client: " + error);
+        } catch (Exception e) {
+            UNCONFIRMED.inc(); // still pending: the reclaim loop will get to it
+            LOG.warn("Dead-lettering rejected {} failed: {}", entry.getID(), e.getMessage());
+        }
+    }
+
+    // Neither client_id nor topic: no retry can deliver it, so dead-letter it right away.
+    private void malformed(String stream, StreamEntry entry) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            deadLetter(jedis, stream, List.of(entry), Map.of(entry.getID(), 1L), "malformed: no client_id or topic");
+        } catch (Exception e) {
+            LOG.warn("Dead-lettering malformed {} failed: {}", entry.getID(), e.getMessage());
+            // at-most-once: ACK it anyway; at-least-once: the reclaim loop will get to it
+            if (atLeastOnce) UNCONFIRMED.inc(); else queueAck(stream, entry.getID());
+        }
+    }
+
+    private void deadLetter(Jedis jedis, String stream, List<StreamEntry> dead, Map<StreamEntryID, Long> attempts,
+                            String reason) {
+        String deadStream = stream + ":dead";
+        Pipeline pipeline = jedis.pipelined();
+        for (StreamEntry e : dead) {
+            Map<String, String> fields = new java.util.HashMap<>(e.getFields());
+            fields.put("source_id", e.getID().toString());
+            fields.put("attempts", Long.toString(attempts.getOrDefault(e.getID(), 0L)));
+            fields.put("reason", reason);
+            pipeline.xadd(deadStream, fields, new XAddParams().approximateTrimming().maxLen(10_000));
+        }
+        pipeline.xack(stream, groupName, dead.stream().map(StreamEntry::getID).toArray(StreamEntryID[]::new));
+        pipeline.sync();
+        DEAD_LETTERED.add(dead.size());
+        LOG.warn("Moved {} entries from {} to {} {}", dead.size(), stream, deadStream, reason);
+    }
+
+    // The client is not on this node: forward the entry to the node that owns it, if any.
+    // Returns false when no other node has the client (or it could not be forwarded).
+    boolean rerouteToOwner(StreamEntry entry, String clientId) {
+        ClusterRouting routing = wsServer.getRouting();
+        if (routing == null || clientId == null) return false;
+
+        int hops = parseHops(entry.getFields().get("hops"));
+        if (hops >= MAX_HOPS) return false;
+
+        try (Jedis jedis = jedisPool.getResource()) {
+            String owner = jedis.hget(routing.routesKey(), WebSocketRelayServer.extractGlobalClientIdOnly(clientId));
+            if (owner == null || routing.isLocal(owner)) return false;
+
+            Map<String, String> fields = new java.util.HashMap<>(entry.getFields());
+            fields.put("hops", Integer.toString(hops + 1));
+            jedis.xadd(routing.streamFor(owner), fields,
+                    new XAddParams().approximateTrimming().maxLen(10_000));
+            LOG.debug("Re-routed {} for {} to node {}", entry.getID(), clientId, owner);
+            return true;
+        } catch (Exception e) {
+            SEND_FAILED.log("Re-route of {} failed: {}", entry.getID(), e.getMessage());
+            return false;
+        }
+    }
+
+    // Nobody has the client: keep the message in its offline mailbox (when enabled).
+    private void park(String fromClientId, String clientId, String data) {
+        OfflineMailbox mailbox = wsServer.getMailbox();
+        if (mailbox == null || clientId == null) return;
+        String target = WebSocketRelayServer.extractGlobalClientIdOnly(clientId);
+        mailbox.store(target, fromClientId, data);
+        // it may have registered (and replayed an empty mailbox) while we were storing
+        wsServer.replayMailbox(target);
+    }
+
+    // Copies a user- or topic-addressed entry to every other node that has recipients for it.
+    // Forwarded copies (hops > 0) are only delivered locally, so there is exactly one fan-out.
+    private void forwardToNodes(StreamEntry entry, java.util.function.Supplier<java.util.Set<String>> nodes) {
+        ClusterRouting routing = wsServer.getRouting();
+        if (parseHops(entry.getFields().get("hops")) > 0) return;
+
+        try (Jedis jedis = jedisPool.getResource()) {
+            Map<String, String> fields = null;
+            Pipeline pipeline = null;
+            for (String node : nodes.get()) {
+                if (routing.isLocal(node)) continue;
+                if (pipeline == null) {
+                    fields = new java.util.HashMap<>(entry.getFields());
+                    fields.put("hops", "1");
+                    pipeline = jedis.pipelined();
+                }
+                pipeline.xadd(routing.streamFor(node), fields,
+                        new XAddParams().approximateTrimming().maxLen(10_000));
+            }
+            if (pipeline != null) {
+                pipeline.sync();
+                LOG.debug("Forwarded {} to other nodes", entry.getID());
+            }
+        } catch (Exception e) {
+            SEND_FAILED.log("Fan-out forward of {} failed: {}", entry.getID(), e.getMessage());
+        }
+    }
+
+    private static int parseHops(String hops) {
+        if (hops == null) return 0;
+        try {
+            return Integer.parseInt(hops);
+        } catch (NumberFormatException e) {
+            return MAX_HOPS;
+        }
+    }
+
+    // queues an entry for the next batched XACK
+    void queueAck(String stream, StreamEntryID id) {
+        delivered.add(new Delivered(stream, id));
+    }
+
+    // one multi-ID XACK per stream for everything delivered since the last call
+    void ackDelivered(Jedis jedis) {
+        if (delivered.isEmpty()) return;
+        Map<String, List<StreamEntryID>> byStream = new java.util.HashMap<>();
+        List<Delivered> drained = new ArrayList<>();
+        Delivered d;
+        while ((d = delivered.poll()) != null) {
+            drained.add(d);
+            byStream.computeIfAbsent(d.stream(), k -> new ArrayList<>()).add(d.id());
+        }
+        try {
+            for (Map.Entry<String, List<StreamEntryID>> e : byStream.entrySet()) {
+                jedis.xack(e.getKey(), groupName, e.getValue().toArray(new StreamEntryID[0]));
+            }
+        } catch (RuntimeException e) {
+            delivered.addAll(drained); // retry on the next (re)connection; XACK is idempotent
+            throw e;
+        }
     }
 
     private static boolean isTimeout(Throwable t) {
@@ -243,7 +774,27 @@ public class RedisToWebSocketBridge {
 
     // Optional: simple demo main
     public static void main(String[] args) {
-        WebSocketRelayServer wsServer = new WebSocketRelayServer(4242);
+        ClusterRouting routing = new ClusterRouting(
+                "10.0.0.143",
+                6379,
+                "client-messages",
+                ClusterRouting.defaultNodeId()
+        );
+        routing.resetOwnRoutes();
+
+        // Prometheus scrape endpoint, local only by default
+        try {
+            new MetricsHttpServer(
+                    System.getProperty("metrics.host", "127.0.0.1"),
+                    Integer.getInteger("metrics.port", 9404),
+                    MetricsRegistry.global());
+        } catch (java.io.IOException e) {
+            LOG.warn("Metrics endpoint not started: {}", e.getMessage());
+        }
+
+        WebSocketRelayServer wsServer = new WebSocketRelayServer(4242, routing);
+        OfflineMailbox mailbox = new OfflineMailbox("10.0.0.143", 6379, "client-messages");
+        wsServer.setMailbox(mailbox);
         wsServer.start();
 
         RedisToWebSocketBridge bridge = new RedisToWebSocketBridge(
@@ -251,7 +802,7 @@ public class RedisToWebSocketBridge {
                 6379,
                 "client-messages",
                 "mygroup",
-                "ws-consumer-1",
+                "ws-consumer-" + routing.nodeId(), // one consumer per node on the shared stream
                 wsServer
         );
         bridge.start();
@@ -259,6 +810,8 @@ public class RedisToWebSocketBridge {
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             bridge.stop();
             try { wsServer.stop(); } catch (Exception ignored) {}
+            routing.close();
+            mailbox.close();
         }));
     }
 }
\ No newline at end of file
@@ -1,53 +1,128 @@
 package com.social100.todero;
 
+import com.social100.todero.log.Log;
 import org.java_websocket.WebSocket;
 import org.java_websocket.enums.ReadyState;
 
 import java.net.SocketAddress;
 import java.time.Instant;
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
-public class RegistryMonitor {
+/**
+ * Keeps registry counters up to date from {@link WebSocketRegistry.Listener} events and logs a
+ * one-line summary. Bursts of events are coalesced: the first event after a quiet period
+ * schedules a summary {@code debounceMs} later and everything arriving until then rides along.
+ * The per-client listing walks the whole registry and only runs on {@link #dumpClients()}.
+ */
+public class RegistryMonitor implements WebSocketRegistry.Listener {
+  private static final Log LOG = Log.get("RegistryMonitor");
+
+  private static final long DEFAULT_DEBOUNCE_MS = Long.getLong("monitor.debounceMs", 1_000);
 
   private final WebSocketRegistry registry;
+  private final long debounceMs;
   private final ScheduledExecutorService scheduler;
 
+  private final AtomicLong active = new AtomicLong();
+  private final LongAdder connects = new LongAdder();
+  private final LongAdder disconnects = new LongAdder();
+  // ready state of the connection at the time it was unbound (OPEN = replaced by a newer binding)
+  private final Map<ReadyState, LongAdder> removedByState = new EnumMap<>(ReadyState.class);
+
+  private final AtomicBoolean summaryScheduled = new AtomicBoolean();
+  private final LongAdder pendingEvents = new LongAdder();
+  private final LongAdder summaries = new LongAdder();
+  private volatile String lastReason;
+
   public RegistryMonitor(WebSocketRegistry registry, long intervalSeconds) {
+    this(registry, intervalSeconds, DEFAULT_DEBOUNCE_MS);
+  }
+
+  RegistryMonitor(WebSocketRegistry registry, long intervalSeconds, long debounceMs) {
     this.registry = registry;
+    this.debounceMs = debounceMs;
+    for (ReadyState s : ReadyState.values()) removedByState.put(s, new LongAdder());
     this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
       Thread t = new Thread(r, "RegistryMonitor");
       t.setDaemon(true);
       return t;
     });
-    scheduler.scheduleAtFixedRate(this::printStatus, 0, intervalSeconds, TimeUnit.SECONDS);
+    registry.addListener(this);
+    scheduler.scheduleAtFixedRate(() -> printSummary("periodic"), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void onAdded(String clientId, WebSocket conn) {
+    active.incrementAndGet();
+    connects.increment();
+    triggerNow("connect");
+  }
+
+  @Override
+  public void onRemoved(String clientId, WebSocket conn) {
+    active.decrementAndGet();
+    disconnects.increment();
+    removedByState.get(safeReadyState(conn)).increment();
+    triggerNow("disconnect");
   }
 
   public void triggerNow() {
-    scheduler.execute(this::printStatus);
+    triggerNow(null);
   }
 
-  /** Manually queue a status print ASAP, with a reason tag. */
+  /** Requests a summary; calls within the debounce window are folded into one line. */
   public void triggerNow(String reason) {
-    scheduler.execute(() -> printStatus(reason));
+    pendingEvents.increment();
+    if (reason != null) lastReason = reason;
+    if (summaryScheduled.compareAndSet(false, true)) {
+      try {
+        scheduler.schedule(() -> {
+          summaryScheduled.set(false);
+          printSummary(lastReason);
+        }, debounceMs, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        summaryScheduled.set(false); // shut down
+      }
+    }
   }
 
-  private void printStatus() {
-    printStatus(null);
+  public long getActive()      { return active.get(); }
+  public long getConnects()    { return connects.sum(); }
+  public long getDisconnects() { return disconnects.sum(); }
+
+  /** Number of summary lines written so far. */
+  long getSummaryCount() { return summaries.sum(); }
+
+  /** Bindings dropped while their socket was still open, i.e. replaced by a newer connection. */
+  public long getReplacedWhileOpen() { return removedByState.get(ReadyState.OPEN).sum(); }
+
+  private void printSummary(String reason) {
+    long events = pendingEvents.sumThenReset();
+    summaries.increment();
+    LOG.info("active={} connects={} disconnects={} closedOnRemove={} replacedWhileOpen={} events={}{}",
+        active.get(), connects.sum(), disconnects.sum(),
+        removedByState.get(ReadyState.CLOSED).sum() + removedByState.get(ReadyState.CLOSING).sum(),
+        removedByState.get(ReadyState.OPEN).sum(), events,
+        reason == null ? "" : " (last: " + reason + ")");
   }
 
-  private void printStatus(String reason) {
-    String header = "=== Registry status @ " + Instant.now() +
-        (reason == null ? "" : " — " + reason) + " ===";
-    System.out.println(header);
+  /** Full per-client listing: O(clients), for operators only. */
+  public String dumpClients() {
+    StringBuilder sb = new StringBuilder("=== Registry status @ ").append(Instant.now()).append(" ===");
 
     Map<String, WebSocket> forward = registry.snapshotForward();
     Set<String> allClientIds = registry.getAllKnownClientIds();
 
     if (allClientIds.isEmpty()) {
-      System.out.println("(no clients known)");
-      return;
+      String out = sb.append("\n(no clients known)").toString();
+      LOG.info(out);
+      return out;
     }
 
     long active = 0;
@@ -73,11 +148,14 @@ public class RegistryMonitor {
       }
 
       if (isActive) active++;
-      System.out.println(" - " + clientId + " -> " + stateStr + "  [" + extra + "]");
+      sb.append("\n - ").append(clientId).append(" -> ").append(stateStr).append("  [").append(extra).append(']');
     }
 
     long total = allClientIds.size();
-    System.out.println("Totals: active=" + active + ", inactive=" + (total - active));
+    sb.append("\nTotals: active=").append(active).append(", inactive=").append(total - active);
+    String out = sb.toString();
+    LOG.info(out);
+    return out;
   }
 
   private ReadyState safeReadyState(WebSocket conn) {
@@ -92,4 +170,4 @@ public class RegistryMonitor {
   public void shutdown() {
     scheduler.shutdownNow();
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,114 @@
+package com.social100.todero;
+
+import org.java_websocket.WebSocket;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * topic -> subscribed connections on this node, plus the reverse index used to drop
+ * everything a connection subscribed to when it closes. Lookups are lock-free; each
+ * topic's subscriber set is changed under that topic's map bin only.
+ */
+public class TopicIndex {
+
+  static final int MAX_TOPICS_PER_CONNECTION = Integer.getInteger("topics.maxPerConnection", 256);
+  static final int MAX_TOPIC_LENGTH = 128;
+
+  private final Map<String, Set<WebSocket>> subscribers = new ConcurrentHashMap<>(); // topic -> conns
+  private final Map<WebSocket, Set<String>> topicsByConnection = new ConcurrentHashMap<>(); // conn -> topics
+
+  /**
+   * Notified when a topic gains its first / loses its last local subscriber. Called inside
+   * the topic's map bin so a topic's events arrive in order; implementations must not block.
+   */
+  public interface Listener {
+    void onTopicActive(String topic);
+    void onTopicIdle(String topic);
+  }
+
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Returns false if the connection already is subscribed.
+   * @throws IllegalArgumentException for an invalid topic or when the per-connection limit is reached
+   */
+  public boolean subscribe(String topic, WebSocket conn) {
+    validate(topic);
+    Set<String> own = topicsByConnection.computeIfAbsent(conn, c -> ConcurrentHashMap.newKeySet());
+    if (!own.contains(topic) && own.size() >= MAX_TOPICS_PER_CONNECTION) {
+      throw new IllegalArgumentException("Too many subscriptions (max " + MAX_TOPICS_PER_CONNECTION + ")");
+    }
+    if (!own.add(topic)) return false;
+
+    subscribers.compute(topic, (t, set) -> {
+      if (set == null) {
+        set = ConcurrentHashMap.newKeySet();
+        for (Listener l : listeners) l.onTopicActive(t);
+      }
+      set.add(conn);
+      return set;
+    });
+    return true;
+  }
+
+  /** Returns false if the connection was not subscribed. */
+  public boolean unsubscribe(String topic, WebSocket conn) {
+    Set<String> own = topicsByConnection.get(conn);
+    if (own == null || !own.remove(topic)) return false;
+    removeSubscriber(topic, conn);
+    return true;
+  }
+
+  /** Drops all of the connection's subscriptions (onClose). */
+  public void removeConnection(WebSocket conn) {
+    Set<String> own = topicsByConnection.remove(conn);
+    if (own == null) return;
+    for (String topic : own) {
+      removeSubscriber(topic, conn);
+    }
+  }
+
+  /** Live view of the local subscribers; empty if none. */
+  public Set<WebSocket> subscribersOf(String topic) {
+    Set<WebSocket> set = subscribers.get(topic);
+    return set == null ? Set.of() : set;
+  }
+
+  public Set<String> topicsOf(WebSocket conn) {
+    Set<String> own = topicsByConnection.get(conn);
+    return own == null ? Set.of() : Set.copyOf(own);
+  }
+
+  /** Number of topics with at least one local subscriber. */
+  public int size() {
+    return subscribers.size();
+  }
+
+  private void removeSubscriber(String topic, WebSocket conn) {
+    subscribers.computeIfPresent(topic, (t, set) -> {
+      set.remove(conn);
+      if (set.isEmpty()) {
+        for (Listener l : listeners) l.onTopicIdle(t);
+        return null;
+      }
+      return set;
+    });
+  }
+
+  private static void validate(String topic) {
+    if (topic == null || topic.isBlank()) {
+      throw new IllegalArgumentException("Topic must not be empty");
+    }
+    if (topic.length() > MAX_TOPIC_LENGTH) {
+      throw new IllegalArgumentException("Topic too long (max " + MAX_TOPIC_LENGTH + ")");
+    }
+  }
+}
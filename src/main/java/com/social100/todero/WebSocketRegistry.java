@@ -1,9 +1,11 @@
 package com.social100.todero;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.java_websocket.WebSocket;
 
@@ -14,47 +16,97 @@ public class WebSocketRegistry {
   private final Map<WebSocket, String> serversReverseMap = new ConcurrentHashMap<>(); // conn -> clientId
   private final Map<String, Set<String>> devicesIdsForUserId = new ConcurrentHashMap<>(); // userId -> {deviceId,...}
 
-  private final Object lock = new Object();
+  // Writers lock the stripe of every userId they touch, lowest stripe first; readers never lock.
+  // All changes to devicesIdsForUserId.get(u) and to a reverse entry whose value belongs to u
+  // happen under stripe(u), so the three maps agree once a writer releases its stripes.
+  private static final int STRIPES = 64;
+  private final Object[] stripes = new Object[STRIPES];
 
-  public void addByClientId(String clientId, WebSocket conn) {
-    ClientId parts = parseClientId(clientId);
-
-    synchronized (lock) {
-      // If this conn was previously registered, unlink the old clientId and device mapping
-      String oldClientIdForConn = serversReverseMap.put(conn, clientId);
-      if (oldClientIdForConn != null && !oldClientIdForConn.equals(clientId)) {
-        serversForwardMap.remove(oldClientIdForConn, conn);
-        ClientId old = parseClientId(oldClientIdForConn);
-        removeDeviceUnsafe(old.userId(), old.deviceId()); // only if present
-      }
+  {
+    for (int i = 0; i < STRIPES; i++) stripes[i] = new Object();
+  }
+
+  /** Notified after a clientId gets bound to / unbound from a connection (outside the registry lock). */
+  public interface Listener {
+    void onAdded(String clientId, WebSocket conn);
+    void onRemoved(String clientId, WebSocket conn);
+  }
+
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
 
-      // If this clientId was bound to a different conn, unlink that reverse mapping
-      WebSocket oldConnForClient = serversForwardMap.put(clientId, conn);
-      if (oldConnForClient != null && oldConnForClient != conn) {
-        serversReverseMap.remove(oldConnForClient, clientId);
+  public void addByClientId(String clientId, WebSocket conn) {
+    String userId = userIdOf(clientId);
+    String oldClientIdForConn;
+    WebSocket displaced = null; // the conn this clientId was bound to before, if another one
+
+    while (true) {
+      oldClientIdForConn = serversReverseMap.get(conn);
+      int a = stripeOf(userId);
+      int b = oldClientIdForConn == null ? a : stripeOf(userIdOf(oldClientIdForConn));
+      synchronized (stripes[Math.min(a, b)]) {
+        synchronized (stripes[Math.max(a, b)]) {
+          // the conn was re-bound by someone else between the read and the lock; start over
+          if (!swapReverse(conn, oldClientIdForConn, clientId)) continue;
+
+          // If this conn was previously registered, unlink the old clientId and device mapping
+          if (oldClientIdForConn != null && !oldClientIdForConn.equals(clientId)) {
+            serversForwardMap.remove(oldClientIdForConn, conn);
+            removeDeviceUnsafe(userIdOf(oldClientIdForConn), deviceIdOf(oldClientIdForConn));
+          }
+
+          // If this clientId was bound to a different conn, unlink that reverse mapping
+          WebSocket oldConnForClient = serversForwardMap.put(clientId, conn);
+          if (oldConnForClient != null && oldConnForClient != conn) {
+            serversReverseMap.remove(oldConnForClient, clientId);
+            displaced = oldConnForClient;
+          }
+
+          // Add device to the user's device set
+          devicesIdsForUserId
+              .computeIfAbsent(userId, k -> ConcurrentHashMap.newKeySet())
+              .add(deviceIdOf(clientId));
+        }
       }
+      break;
+    }
 
-      // Add device to the user's device set
-      devicesIdsForUserId
-          .computeIfAbsent(parts.userId(), k -> ConcurrentHashMap.newKeySet())
-          .add(parts.deviceId());
+    if (oldClientIdForConn != null && !oldClientIdForConn.equals(clientId)) {
+      for (Listener l : listeners) l.onRemoved(oldClientIdForConn, conn);
     }
+    // the displaced conn loses its reverse entry here, so its own removeByConnection is a no-op later
+    if (displaced != null) {
+      for (Listener l : listeners) l.onRemoved(clientId, displaced);
+    }
+    for (Listener l : listeners) l.onAdded(clientId, conn);
   }
 
   public void removeByConnection(WebSocket conn) {
-    synchronized (lock) {
-      String clientId = serversReverseMap.remove(conn);
+    String clientId;
+    while (true) {
+      clientId = serversReverseMap.get(conn);
       if (clientId == null) return;
-
-      serversForwardMap.remove(clientId, conn);
-
-      ClientId parts = parseClientId(clientId);
-      removeDeviceUnsafe(parts.userId(), parts.deviceId());
+      String userId = userIdOf(clientId);
+      synchronized (stripes[stripeOf(userId)]) {
+        if (!serversReverseMap.remove(conn, clientId)) continue;
+        serversForwardMap.remove(clientId, conn);
+        removeDeviceUnsafe(userId, deviceIdOf(clientId));
+      }
+      break;
     }
+    for (Listener l : listeners) l.onRemoved(clientId, conn);
   }
 
   // ------- Optional helpers -------
 
+  /** Number of clientIds currently bound to a connection. */
+  public int size() {
+    return serversForwardMap.size();
+  }
+
   public WebSocket getConnection(String clientId) {
     return serversForwardMap.get(clientId);
   }
@@ -71,14 +123,15 @@ public class WebSocketRegistry {
 
   /** Remove a specific device for a user (by explicit userId/deviceId). */
   public void removeDevice(String userId, String deviceId) {
-    synchronized (lock) {
+    synchronized (stripes[stripeOf(userId)]) {
       removeDeviceUnsafe(userId, deviceId);
     }
   }
 
   /** Remove all devices for a userId (and any forward/reverse connections tied to them). */
   public void removeAllDevicesForUser(String userId) {
-    synchronized (lock) {
+    Map<String, WebSocket> removed = new java.util.HashMap<>();
+    synchronized (stripes[stripeOf(userId)]) {
       Set<String> set = devicesIdsForUserId.remove(userId);
       if (set == null || set.isEmpty()) return;
 
@@ -88,9 +141,13 @@ public class WebSocketRegistry {
         WebSocket conn = serversForwardMap.remove(clientId);
         if (conn != null) {
           serversReverseMap.remove(conn, clientId);
+          removed.put(clientId, conn);
         }
       }
     }
+    removed.forEach((clientId, conn) -> {
+      for (Listener l : listeners) l.onRemoved(clientId, conn);
+    });
   }
 
   public Map<String, org.java_websocket.WebSocket> snapshotForward() {
@@ -107,27 +164,39 @@ public class WebSocketRegistry {
 
   // ------- Internals -------
 
+  private boolean swapReverse(WebSocket conn, String expected, String clientId) {
+    if (expected == null) return serversReverseMap.putIfAbsent(conn, clientId) == null;
+    return serversReverseMap.replace(conn, expected, clientId);
+  }
+
+  /** Caller holds stripe(userId). */
   private void removeDeviceUnsafe(String userId, String deviceId) {
     Set<String> set = devicesIdsForUserId.get(userId);
     if (set == null) return;
     set.remove(deviceId);
     if (set.isEmpty()) {
-      devicesIdsForUserId.remove(userId, Set.of()); // fast path won't work; remove by key if now empty
-      // Re-check emptiness safely
-      Set<String> current = devicesIdsForUserId.get(userId);
-      if (current != null && current.isEmpty()) {
-        devicesIdsForUserId.remove(userId, current);
-      }
+      devicesIdsForUserId.remove(userId, set);
     }
   }
 
-  private ClientId parseClientId(String clientId) {
-    if (clientId == null || !clientId.contains(":")) {
+  private int stripeOf(String userId) {
+    int h = userId.hashCode();
+    return (h ^ (h >>> 16)) & (STRIPES - 1);
+  }
+
+  private static String userIdOf(String clientId) {
+    return clientId.substring(0, separatorOf(clientId));
+  }
+
+  private static String deviceIdOf(String clientId) {
+    return clientId.substring(separatorOf(clientId) + 1);
+  }
+
+  private static int separatorOf(String clientId) {
+    int sep = clientId == null ? -1 : clientId.indexOf(':');
+    if (sep < 0) {
       throw new IllegalArgumentException("Invalid clientId format: " + clientId);
     }
-    String[] parts = clientId.split(":", 2);
-    return new ClientId(parts[0], parts[1]);
+    return sep;
   }
-
-  private record ClientId(String userId, String deviceId) {}
-}
\ No newline at end of file
+}
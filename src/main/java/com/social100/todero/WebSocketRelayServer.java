@@ -1,82 +1,343 @@
 package com.social100.todero;
 
+import com.social100.todero.cmd.CmdArgs;
+import com.social100.todero.cmd.CommandFramework;
+import com.social100.todero.log.Log;
+import com.social100.todero.metrics.MetricsRegistry;
 import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
 import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
 import org.java_websocket.server.WebSocketServer;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class WebSocketRelayServer extends WebSocketServer {
+  private static final Log LOG = Log.get("Relay");
+  private static final Log.Site DROPPED_FRAME = LOG.site(Log.Level.WARN, 10);
+  private static final Log.Site NO_CLIENT = LOG.site(Log.Level.DEBUG, 100);
 
-  private final WebSocketServerCommands webSocketServerCommands = new WebSocketServerCommands();
-  private final AuthClient authClient = new AuthClient();
+  final WebSocketServerCommands webSocketServerCommands;
+  final AuthClient authClient = new AuthClient();
+  final TopicIndex topics = new TopicIndex();
+
+  private static final MetricsRegistry.Counter SEND_FAILURES = MetricsRegistry.global()
+      .counter("ws_send_failures_total", "Frames that could not be written to a client socket");
+  private final ClusterRouting routing;
+  private volatile OfflineMailbox mailbox;
 
   public WebSocketRelayServer(int port) {
-    super(new InetSocketAddress("0.0.0.0", port));
-    System.out.println("WebSocketRelayServer listening on port " + port);
+    this(port, null);
+  }
+
+  /** With routing, this node publishes its clientIds to the cluster directory as they (dis)connect. */
+  public WebSocketRelayServer(int port, ClusterRouting routing) {
+    super(new InetSocketAddress("0.0.0.0", port), List.of(draft()));
+    this.routing = routing;
+    this.webSocketServerCommands = new WebSocketServerCommands(routing, topics);
+    if (routing != null) {
+      authClient.webSocketRegistry.addListener(routing);
+      topics.addListener(routing);
+    }
+    LOG.info("WebSocketRelayServer listening on port {}", port);
+  }
+
+  // Offer the binary subprotocol; "" keeps accepting clients that don't ask for one (text framing)
+  private static Draft draft() {
+    return new Draft_6455(
+        Collections.emptyList(),
+        List.of(new Protocol(CommandFramework.BinaryCommandCodec.SUBPROTOCOL), new Protocol("")));
+  }
+
+  public ClusterRouting getRouting() {
+    return routing;
+  }
+
+  /** Starts a mailbox replay for a locally connected client unless one is already running. */
+  public void replayMailbox(String clientId) {
+    OfflineMailbox m = mailbox;
+    ClientSession session = ClientSession.of(authClient.webSocketRegistry.getConnection(clientId));
+    if (m != null && session != null && session.tryBeginReplay()) {
+      m.replay(session, clientId);
+    }
+  }
+
+  public OfflineMailbox getMailbox() {
+    return mailbox;
+  }
+
+  /** Enables the offline mailbox: every newly registered client gets its parked messages replayed first. */
+  public void setMailbox(OfflineMailbox mailbox) {
+    this.mailbox = mailbox;
+    authClient.webSocketRegistry.addListener(new WebSocketRegistry.Listener() {
+      @Override
+      public void onAdded(String clientId, WebSocket conn) {
+        ClientSession session = ClientSession.of(conn);
+        if (session == null) return;
+        // runs inside ClientSession.activate(), which holds the session lock: no live send gets in
+        // first, and nothing here may block (the replay task itself finds out if the mailbox is empty)
+        if (session.tryBeginReplay()) mailbox.replay(session, clientId);
+      }
+
+      @Override
+      public void onRemoved(String clientId, WebSocket conn) {
+      }
+    });
   }
 
   @Override
   public void onOpen(WebSocket conn, ClientHandshake handshake) {
     String resourceDescriptor = handshake.getResourceDescriptor();
     if (!"/ws".equals(resourceDescriptor)) {
-      System.out.println("Rejected client with invalid path: " + resourceDescriptor);
+      LOG.info("Rejected client with invalid path: {}", resourceDescriptor);
       conn.close(1002, "Invalid path");
       return;
     }
 
     String authHeader = handshake.getFieldValue("Authorization");
     if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-      System.out.println("Rejected client: missing or invalid Authorization header");
+      LOG.info("Rejected client: missing or invalid Authorization header");
       conn.close(1008, "Missing/invalid Authorization header");
       return;
     }
 
-    // 🟢 Delegate full validation/registration to AuthClient
-    String token = authHeader.substring("Bearer ".length());
-    boolean ok = authClient.validateAndRegister(token, conn);
-
-    if (!ok) {
-      // validateAndRegister already handled the close
-      return;
-    }
+    // Attach the per-connection session (pending auth) before registration so deliveries can find it
+    openSession(conn);
 
-    System.out.println("WebSocket client connected: " + conn.getRemoteSocketAddress());
+    // 🟢 Delegate full validation/registration to AuthClient, off this I/O thread
+    String token = authHeader.substring("Bearer ".length());
+    authClient.validateAndRegisterAsync(token, conn).thenAccept(ok -> {
+      // on failure validateAndRegisterAsync already handled the close
+      if (ok) {
+        LOG.debug("WebSocket client connected: {}", conn.getRemoteSocketAddress());
+      }
+    });
   }
 
   @Override
   public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-    // also remove from registered client map in AuthClient
+    // stop a still-running auth from registering this socket
+    ClientSession session = ClientSession.of(conn);
+    if (session != null) {
+      session.markClosed();
+    }
+    // also remove from registered client map in AuthClient, and from every topic
     authClient.unregister(conn);
-    System.out.println("WebSocket client disconnected");
+    topics.removeConnection(conn);
+    LOG.debug("WebSocket client disconnected: code={}", code);
   }
 
   @Override
   public void onMessage(WebSocket conn, String raw) {
-    System.out.println("WebSocket received: " + raw);
-    synchronized (webSocketServerCommands) {
-      webSocketServerCommands.bus.setOutboundWriter(conn::send);
-      webSocketServerCommands.bus.receive(raw);
+    LOG.debug("WebSocket received: {}", raw);
+    ClientSession session = ClientSession.of(conn);
+    if (session == null) {
+      DROPPED_FRAME.log("Dropping frame from connection without session");
+      return;
     }
+    session.receive(raw);
+  }
+
+  @Override
+  public void onMessage(WebSocket conn, ByteBuffer frame) {
+    ClientSession session = ClientSession.of(conn);
+    if (session == null || !session.getBus().isBinary()) {
+      DROPPED_FRAME.log("Dropping binary frame from connection without binary framing");
+      return;
+    }
+    session.receive(frame);
+  }
+
+  ClientSession openSession(WebSocket conn) {
+    ClientSession[] ref = new ClientSession[1];
+    // all writes go through a bounded queue so a stalled client cannot grow the socket buffer without limit
+    OutboundQueue outbound = new OutboundQueue(conn, () -> countSendFailure(ref[0]));
+    CommandFramework.CommandBus bus = webSocketServerCommands.newBus(outbound::send);
+    if (isBinaryProtocol(conn)) {
+      bus.useBinary(webSocketServerCommands.binaryCodec, outbound::send);
+    }
+    ClientSession session = new ClientSession(conn, bus, outbound);
+    ref[0] = session;
+    bus.setAttachment(session);
+    bus.setCommandGuard(name -> !WebSocketServerCommands.ADMIN_COMMANDS.contains(name) || session.isAdmin());
+    conn.setAttachment(session);
+    return session;
+  }
+
+  private static void countSendFailure(ClientSession session) {
+    SEND_FAILURES.inc();
+    if (session != null) session.recordSendFailure();
+  }
+
+  private static boolean isBinaryProtocol(WebSocket conn) {
+    IProtocol protocol = conn.getProtocol();
+    return protocol != null && CommandFramework.BinaryCommandCodec.SUBPROTOCOL.equals(protocol.getProvidedProtocol());
   }
 
   /**
-   * Send a message to a previously registered client by id
+   * Send a message to a previously registered client by id.
+   * Returns false when no connection for this clientId lives on this node.
    */
-  public void sendToClientId(String clientId, String ...params) {
+  public boolean sendToClientId(String clientId, String ...params) {
     WebSocket target = authClient.webSocketRegistry.getConnection(extractGlobalClientIdOnly(clientId));
-    if (target != null) {
-      System.out.println("Sending to " + clientId + " -> " + Arrays.toString(params));
-      synchronized (webSocketServerCommands) {
-        webSocketServerCommands.bus.setOutboundWriter(target::send);
-        webSocketServerCommands.bus.request("SEND_MESSAGE", params);
+    ClientSession session = ClientSession.of(target);
+    if (session != null) {
+      if (LOG.isDebugEnabled()) LOG.debug("Sending to {} -> {}", clientId, Arrays.toString(params));
+      session.getBus().send("SEND_MESSAGE", params); // one-way: nothing waits for the reply
+      return true;
+    } else {
+      NO_CLIENT.log("No client with id = {}", clientId);
+      return false;
+    }
+  }
+
+  /**
+   * Deliver a SEND_MESSAGE built straight from stream-entry fields (no intermediate params).
+   * Returns false when no connection for this clientId lives on this node.
+   */
+  public boolean sendMessageToClientId(String fromClientId, String clientId, String data) {
+    return sendMessageToClientId(fromClientId, clientId, data, null);
+  }
+
+  /**
+   * As above; when {@code responses} is given, the future of each SEND_MESSAGE request written
+   * (completed by the client's RESPONSE) is added to it.
+   */
+  public boolean sendMessageToClientId(String fromClientId, String clientId, String data,
+                                       List<CompletableFuture<CommandFramework.CommandMessage>> responses) {
+    if (isUserAddress(clientId)) {
+      return sendMessageToUser(fromClientId, clientId, data, responses) > 0;
+    }
+    WebSocket target = authClient.webSocketRegistry.getConnection(extractGlobalClientIdOnly(clientId));
+    ClientSession session = ClientSession.of(target);
+    if (session != null) {
+      LOG.debug("Sending to {} -> {}", clientId, data);
+      String[] kv = CmdArgs.sendMessageKeyValues(fromClientId, clientId, data);
+      try {
+        if (responses != null) {
+          responses.add(session.requestMessage(kv));
+        } else {
+          session.sendMessage(kv); // one-way: no pending entry, no timer
+        }
+      } catch (ClientSession.ReplayBacklogFullException e) {
+        if (!parkOverflow(fromClientId, extractGlobalClientIdOnly(clientId), data)) throw e;
       }
+      return true;
     } else {
-      System.out.println("No client with id = " + clientId);
+      NO_CLIENT.log("No client with id = {}", clientId);
+      return false;
     }
   }
 
+  /**
+   * Deliver to every device of the user connected to this node. The SEND_MESSAGE frame is
+   * encoded once and the same bytes are written to each socket. Returns the number of devices reached.
+   */
+  public int sendMessageToUser(String fromClientId, String userId, String data) {
+    return sendMessageToUser(fromClientId, userId, data, null);
+  }
+
+  public int sendMessageToUser(String fromClientId, String userId, String data,
+                               List<CompletableFuture<CommandFramework.CommandMessage>> responses) {
+    WebSocketRegistry registry = authClient.webSocketRegistry;
+    CommandFramework.PreparedRequest prepared = null;
+    int sent = 0;
+    for (String deviceId : registry.getDeviceIdsForUser(userId)) {
+      ClientSession session = ClientSession.of(registry.getConnection(userId + ":" + deviceId));
+      if (session == null) continue;
+      if (prepared == null) {
+        prepared = CommandFramework.PreparedRequest.keyValues(
+            "SEND_MESSAGE", CmdArgs.sendMessageKeyValues(fromClientId, userId, data));
+      }
+      try {
+        if (responses != null) {
+          responses.add(session.requestMessage(prepared));
+        } else {
+          session.sendMessage(prepared); // held back while this device replays its mailbox
+        }
+        sent++;
+      } catch (ClientSession.ReplayBacklogFullException e) {
+        if (parkOverflow(fromClientId, userId + ":" + deviceId, data)) {
+          sent++;
+        } else if (responses != null) {
+          responses.add(CompletableFuture.failedFuture(e));
+        }
+      } catch (RuntimeException e) {
+        // one closed device must not stop delivery to the others
+        if (responses != null) responses.add(CompletableFuture.failedFuture(e));
+        LOG.debug("Fan-out to {}:{} failed: {}", userId, deviceId, e.getMessage());
+      }
+    }
+    if (sent == 0) {
+      NO_CLIENT.log("No device connected for user = {}", userId);
+    } else {
+      LOG.debug("Sent to {} device(s) of {} -> {}", sent, userId, data);
+    }
+    return sent;
+  }
+
+  /**
+   * Deliver to every local subscriber of the topic, encoding the frame once.
+   * Returns the number of connections reached.
+   */
+  public int sendMessageToTopic(String fromClientId, String topic, String data) {
+    return sendMessageToTopic(fromClientId, topic, data, null);
+  }
+
+  public int sendMessageToTopic(String fromClientId, String topic, String data,
+                                List<CompletableFuture<CommandFramework.CommandMessage>> responses) {
+    CommandFramework.PreparedRequest prepared = null;
+    int sent = 0;
+    for (WebSocket conn : topics.subscribersOf(topic)) {
+      ClientSession session = ClientSession.of(conn);
+      if (session == null) continue;
+      if (prepared == null) {
+        prepared = CommandFramework.PreparedRequest.keyValues(
+            "SEND_MESSAGE", CmdArgs.topicMessageKeyValues(fromClientId, topic, data));
+      }
+      try {
+        if (responses != null) {
+          responses.add(session.requestMessage(prepared));
+        } else {
+          session.sendMessage(prepared); // held back while this device replays its mailbox
+        }
+        sent++;
+      } catch (RuntimeException e) {
+        if (responses != null) responses.add(CompletableFuture.failedFuture(e));
+        LOG.debug("Topic {} delivery to {} failed: {}", topic, session.getClientId(), e.getMessage());
+      }
+    }
+    LOG.debug("Sent topic {} to {} subscriber(s) -> {}", topic, sent, data);
+    return sent;
+  }
+
+  // The client is replaying its mailbox with too many live messages already waiting: park this
+  // one in the mailbox too. The running replay reads it on its extra pass (ClientSession#tryBeginReplay).
+  private boolean parkOverflow(String fromClientId, String clientId, String data) {
+    OfflineMailbox m = mailbox;
+    if (m == null) return false;
+    try {
+      m.store(clientId, fromClientId, data);
+    } catch (RuntimeException e) {
+      LOG.warn("Parking overflow for {} failed: {}", clientId, e.getMessage());
+      return false;
+    }
+    replayMailbox(clientId);
+    return true;
+  }
+
+  /** A client_id without a device part addresses all of that user's devices. */
+  public static boolean isUserAddress(String clientId) {
+    return clientId != null && !clientId.isEmpty() && clientId.indexOf(':') < 0;
+  }
+
   public static String extractGlobalClientIdOnly(String clientId) {
     if (clientId == null) return null;
 
@@ -91,11 +352,12 @@ public class WebSocketRelayServer extends WebSocketServer {
 
   @Override
   public void onError(WebSocket conn, Exception ex) {
-    System.err.println("WebSocket error: " + ex.getMessage());
+    LOG.warn("WebSocket error: {}", ex.getMessage());
   }
 
   @Override
   public void onStart() {
-    System.out.println("WebSocket server started at " + getAddress());
+    authClient.registerMetrics(MetricsRegistry.global()); // only the serving instance exports its gauges
+    LOG.info("WebSocket server started at {}", getAddress());
   }
 }
@@ -1,21 +1,58 @@
 package com.social100.todero;
 
 import com.social100.todero.cmd.CommandFramework;
+import com.social100.todero.cmd.HandlerExecutors;
 import com.social100.todero.cmd.ParamParser;
+import com.social100.todero.cmd.SerialExecutor;
+import com.social100.todero.metrics.MetricsRegistry;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class WebSocketServerCommands {
   CommandFramework.CommandRegistry registry = new CommandFramework.CommandRegistry();
   CommandFramework.CommandCodec codec = new CommandFramework.CommandCodec();
-  CommandFramework.CommandBus bus = new CommandFramework.CommandBus(registry, codec, 30, TimeUnit.SECONDS);
+  CommandFramework.BinaryCommandCodec binaryCodec = new CommandFramework.BinaryCommandCodec();
 
-  private final RedisPublisher publisher = new RedisPublisher("10.0.0.143", 6379, "client-messages");
+  private final RedisPublisher publisher;
+  final TopicIndex topics;
+
+  // only sessions with the admin role may run these
+  static final java.util.Set<String> ADMIN_COMMANDS = java.util.Set.of("METRICS");
+
+  // -Dcommands.responseOrder=COMPLETION lets fast responses overtake slow ones on a connection
+  private static final CommandFramework.ResponseOrder RESPONSE_ORDER = CommandFramework.ResponseOrder.valueOf(
+      System.getProperty("commands.responseOrder", CommandFramework.ResponseOrder.REQUEST.name()));
+
+  // -Dcommands.dispatch=virtual runs handlers on virtual threads (Java 21+), serially per connection.
+  // The in-flight caps count a command until its response is ready, async publishes included.
+  private static final boolean VIRTUAL_DISPATCH = "virtual".equalsIgnoreCase(System.getProperty("commands.dispatch"));
+  static final int MAX_IN_FLIGHT_PER_CONNECTION = Integer.getInteger("commands.maxInFlightPerConnection", 256);
+  static final int MAX_IN_FLIGHT = Integer.getInteger("commands.maxInFlight", 10_000);
+  private static volatile Executor handlerExecutor;
+  private static final Semaphore IN_FLIGHT = new Semaphore(MAX_IN_FLIGHT);
+
+  // -Dcommands.ids=uuid restores UUID correlation ids for clients that still expect them
+  private static final boolean UUID_IDS = "uuid".equalsIgnoreCase(System.getProperty("commands.ids"));
 
   public WebSocketServerCommands() {
+    this(null);
+  }
+
+  public WebSocketServerCommands(ClusterRouting routing) {
+    this(routing, new TopicIndex());
+  }
+
+  public WebSocketServerCommands(ClusterRouting routing, TopicIndex topics) {
+    this.publisher = new RedisPublisher("10.0.0.143", 6379, "client-messages", routing);
+    this.topics = topics;
 
     final ParamParser.ParamSpec SEND_MESSAGE_SPEC = ParamParser.ParamSpec.builder()
         .addKey(
@@ -27,7 +64,14 @@ public class WebSocketServerCommands {
         )
         .addKey(
             ParamParser.KeySpec.builder("TO")
-                .required(true)
+                .required(false) // required unless TOPIC is given, checked below
+                .allowEmpty(false)
+                .multi(false)
+                .validator(v -> !v.trim().isEmpty())
+        )
+        .addKey(
+            ParamParser.KeySpec.builder("TOPIC")
+                .required(false)
                 .allowEmpty(false)
                 .multi(false)
                 .validator(v -> !v.trim().isEmpty())
@@ -41,6 +85,17 @@ public class WebSocketServerCommands {
         .allowUnknownKeys(false)
         .build();
 
+    final ParamParser.ParamSpec TOPICS_SPEC = ParamParser.ParamSpec.builder()
+        .addKey(
+            ParamParser.KeySpec.builder("TOPIC")
+                .required(true)
+                .allowEmpty(false)
+                .multi(true)
+                .validator(v -> !v.trim().isEmpty())
+        )
+        .allowUnknownKeys(false)
+        .build();
+
     // REGISTER
 //    registry.register("REGISTER", req -> {
 //      System.out.println("REGISTER" + "  " + req.getParams());
@@ -51,47 +106,139 @@ public class WebSocketServerCommands {
 //          CommandFramework.CommandMessage.Kind.RESPONSE);
 //    });
 
-    // SEND_MESSAGE
-    registry.register("SEND_MESSAGE", req -> {
+    // METRICS (admin): Prometheus text of the process metrics as a single param
+    registry.register("METRICS", req -> new CommandFramework.CommandMessage(
+        req.getId(),
+        "METRICS",
+        List.of(MetricsRegistry.global().toPrometheusText()),
+        CommandFramework.CommandMessage.Kind.RESPONSE
+    ));
+
+    // SUBSCRIBE / UNSUBSCRIBE: TOPIC:<name> (repeatable); entries with a matching "topic" field reach this connection
+    registry.registerWithBus("SUBSCRIBE", (bus, req) -> {
+      ClientSession session = bus.getAttachment();
+      List<String> names;
       try {
-        ParamParser.ParsedParams parsed = ParamParser.parse(req.getParams(), SEND_MESSAGE_SPEC);
+        names = topicNames(ParamParser.parse(req.getParams(), TOPICS_SPEC));
+        for (String topic : names) {
+          topics.subscribe(topic, session.getConnection());
+        }
+      } catch (IllegalArgumentException iae) {
+        return badRequest(req, iae);
+      }
+      // the socket may have closed (and been cleaned up) while we were subscribing
+      if (!session.getConnection().isOpen()) {
+        topics.removeConnection(session.getConnection());
+      }
+      return ack(req, "subscribed=" + String.join(",", names));
+    });
 
-        String fromClientId = parsed.require("FROM");
-        String clientId = parsed.require("TO");
-        String message  = parsed.require("MESSAGE");
+    registry.registerWithBus("UNSUBSCRIBE", (bus, req) -> {
+      ClientSession session = bus.getAttachment();
+      List<String> names;
+      try {
+        names = topicNames(ParamParser.parse(req.getParams(), TOPICS_SPEC));
+      } catch (IllegalArgumentException iae) {
+        return badRequest(req, iae);
+      }
+      for (String topic : names) {
+        topics.unsubscribe(topic, session.getConnection());
+      }
+      return ack(req, "unsubscribed=" + String.join(",", names));
+    });
 
-        fromClientId = fromClientId.trim();
-        clientId = clientId.trim();
-        message  = message.trim();
+    // SEND_MESSAGE (async: the ACK is written once the batched XADD completes)
+    registry.registerAsync("SEND_MESSAGE", req -> {
+      String fromClientId;
+      String clientId;
+      String topic;
+      String message;
+      try {
+        ParamParser.ParsedParams parsed = ParamParser.parse(req.getParams(), SEND_MESSAGE_SPEC);
+
+        fromClientId = parsed.require("FROM").trim();
+        topic = parsed.has("TOPIC") ? parsed.get("TOPIC").trim() : null;
+        clientId = topic == null ? parsed.require("TO").trim() : null;
+        message  = parsed.require("MESSAGE").trim();
 
-        if (fromClientId.isEmpty() || clientId.isEmpty()) {
+        if (fromClientId.isEmpty() || (topic == null && clientId.isEmpty())) {
           throw new IllegalArgumentException("TO must be a non-empty client id");
         }
+        if (topic != null && parsed.has("TO")) {
+          throw new IllegalArgumentException("TO and TOPIC are mutually exclusive");
+        }
+      } catch (IllegalArgumentException iae) {
+        return badRequest(req, iae);
+      }
 
-        String xaddId = publisher.publish(fromClientId, clientId, message);
+      if (topic != null) {
+        return publisher.publishAsync(fromClientId, null, message, Map.of("topic", topic))
+            .thenApply(xaddId -> new CommandFramework.CommandMessage(
+                req.getId(),
+                "ACK",
+                List.of("xadd_id=" + xaddId, "topic=" + topic),
+                CommandFramework.CommandMessage.Kind.RESPONSE
+            ));
+      }
+      final String to = clientId;
+      return publisher.publishAsync(fromClientId, clientId, message)
+          .thenApply(xaddId -> new CommandFramework.CommandMessage(
+              req.getId(),
+              "ACK",
+              List.of("xadd_id=" + xaddId, "to=" + to),
+              CommandFramework.CommandMessage.Kind.RESPONSE
+          ));
+      // publish failures become ERROR responses in CommandBus
+    });
+  }
 
-        return new CommandFramework.CommandMessage(
-            req.getId(),
-            "ACK",
-            List.of("xadd_id=" + xaddId, "to=" + clientId),
-            CommandFramework.CommandMessage.Kind.RESPONSE
-        );
+  private static List<String> topicNames(ParamParser.ParsedParams parsed) {
+    List<String> names = new ArrayList<>();
+    for (String t : parsed.getAll("TOPIC")) names.add(t.trim());
+    return names;
+  }
 
-      } catch (IllegalArgumentException iae) {
-        return new CommandFramework.CommandMessage(
-            req.getId(),
-            "ERROR",
-            List.of("BadRequest: " + iae.getMessage()),
-            CommandFramework.CommandMessage.Kind.ERROR
-        );
-      } catch (Exception e) {
-        return new CommandFramework.CommandMessage(
-            req.getId(),
-            "ERROR",
-            List.of(e.getClass().getSimpleName() + ": " + e.getMessage()),
-            CommandFramework.CommandMessage.Kind.ERROR
-        );
+  private static CompletableFuture<CommandFramework.CommandMessage> ack(CommandFramework.CommandMessage req,
+                                                                       String... params) {
+    return CompletableFuture.completedFuture(new CommandFramework.CommandMessage(
+        req.getId(), "ACK", List.of(params), CommandFramework.CommandMessage.Kind.RESPONSE));
+  }
+
+  private static CompletableFuture<CommandFramework.CommandMessage> badRequest(CommandFramework.CommandMessage req,
+                                                                              IllegalArgumentException iae) {
+    return CompletableFuture.completedFuture(new CommandFramework.CommandMessage(
+        req.getId(),
+        "ERROR",
+        List.of("BadRequest: " + iae.getMessage()),
+        CommandFramework.CommandMessage.Kind.ERROR
+    ));
+  }
+
+  private static Executor sharedHandlerExecutor() {
+    Executor e = handlerExecutor;
+    if (e == null) {
+      synchronized (WebSocketServerCommands.class) {
+        e = handlerExecutor;
+        if (e == null) {
+          handlerExecutor = e = HandlerExecutors.virtualThreadsOrPool(Integer.getInteger("commands.handlerThreads", 64));
+        }
       }
-    });
+    }
+    return e;
+  }
+
+  /**
+   * Creates a bus for a single connection. Registry and codec are shared (both are
+   * thread-safe); the writer and pending map belong to the new bus only.
+   */
+  public CommandFramework.CommandBus newBus(Consumer<String> outboundWriter) {
+    CommandFramework.CommandBus bus =
+        new CommandFramework.CommandBus(registry, codec, outboundWriter, 30, TimeUnit.SECONDS);
+    bus.setResponseOrder(RESPONSE_ORDER);
+    if (UUID_IDS) bus.setIdGenerator(CommandFramework.IdGenerator.uuid());
+    if (VIRTUAL_DISPATCH) {
+      bus.setHandlerExecutor(new SerialExecutor(sharedHandlerExecutor()), MAX_IN_FLIGHT_PER_CONNECTION, IN_FLIGHT);
+    }
+    return bus;
   }
 }
@@ -13,10 +13,23 @@ public class CmdArgs {
   }
 
   public static String[] sendMessageArgs(String fromClientId, String clientId, String message) {
-    Map<String, String> map = new LinkedHashMap<>();
-    map.put("FROM", fromClientId);
-    map.put("TO", clientId);
-    map.put("MESSAGE", message);
-    return of(map);
+    // same as of(FROM, TO, MESSAGE) without the map + stream on every delivery
+    int n = (fromClientId != null ? 1 : 0) + (clientId != null ? 1 : 0) + (message != null ? 1 : 0);
+    String[] args = new String[n];
+    int i = 0;
+    if (fromClientId != null) args[i++] = "FROM:" + fromClientId;
+    if (clientId != null)     args[i++] = "TO:" + clientId;
+    if (message != null)      args[i] = "MESSAGE:" + message;
+    return args;
   }
-}
\ No newline at end of file
+
+  /** Alternating keys/values for {@link CommandFramework.CommandBus#requestKeyValues}; nulls are skipped there. */
+  public static String[] sendMessageKeyValues(String fromClientId, String clientId, String message) {
+    return new String[] { "FROM", fromClientId, "TO", clientId, "MESSAGE", message };
+  }
+
+  /** SEND_MESSAGE for a topic broadcast: TOPIC instead of TO. */
+  public static String[] topicMessageKeyValues(String fromClientId, String topic, String message) {
+    return new String[] { "FROM", fromClientId, "TOPIC", topic, "MESSAGE", message };
+  }
+}
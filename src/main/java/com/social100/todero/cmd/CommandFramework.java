@@ -1,15 +1,31 @@
 package com.social100.todero.cmd;
 
+import com.social100.todero.log.Log;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public class CommandFramework {
+  private static final Log LOG = Log.get("CommandBus");
+  private static final Log.Site WRITE_FAILED = LOG.site(Log.Level.WARN, 10);
 
   // === Command message (used for both request and response) ===
   public static class CommandMessage {
@@ -35,108 +51,520 @@ public class CommandFramework {
 
   // === Serializer/deserializer ===
   // Format: <kind>:<id>:<name>:<param1>:<param2>:...
+  // Params escape '\' as "\\" and ':' as "\:". Frames without any backslash take a fast
+  // path that only slices on ':'; everything else is a single scan over index ranges.
   public static class CommandCodec {
 
     public String serialize(CommandMessage msg) {
-      StringBuilder sb = new StringBuilder();
-      sb.append(msg.getKind().name()).append(":")
-          .append(msg.getId()).append(":")
-          .append(msg.getName());
-      for (String p : msg.getParams()) {
-        sb.append(":").append(escape(p));
+      List<String> params = msg.getParams();
+      StringBuilder sb = new StringBuilder(headerLength(msg.getKind(), msg.getId(), msg.getName()) + paramsLength(params));
+      appendHeader(sb, msg.getKind(), msg.getId(), msg.getName());
+      for (int i = 0, n = params.size(); i < n; i++) {
+        sb.append(':');
+        appendEscaped(sb, params.get(i));
+      }
+      return sb.toString();
+    }
+
+    /**
+     * Encodes a frame whose params are KEY:VALUE pairs straight from (key, value) arguments,
+     * skipping pairs with a null value. Same bytes as serialize() with params "KEY:VALUE",
+     * without building the intermediate strings.
+     */
+    public String serializeKeyValues(CommandMessage.Kind kind, String id, String name, String... keysAndValues) {
+      int size = headerLength(kind, id, name);
+      for (int i = 1; i < keysAndValues.length; i += 2) {
+        if (keysAndValues[i] != null) size += keysAndValues[i - 1].length() + keysAndValues[i].length() + 4;
+      }
+      StringBuilder sb = new StringBuilder(size);
+      appendHeader(sb, kind, id, name);
+      for (int i = 1; i < keysAndValues.length; i += 2) {
+        String value = keysAndValues[i];
+        if (value == null) continue;
+        sb.append(':');
+        appendEscaped(sb, keysAndValues[i - 1]);
+        sb.append("\\:");
+        appendEscaped(sb, value);
       }
       return sb.toString();
     }
 
     public CommandMessage deserialize(String raw) {
-      List<String> parts = splitOnUnescapedColons(raw);
-      if (parts.size() < 3) {
+      return raw.indexOf('\\') < 0 ? deserializePlain(raw) : deserializeEscaped(raw);
+    }
+
+    // no backslash anywhere: nothing to unescape, split with indexOf
+    private CommandMessage deserializePlain(String raw) {
+      int c1 = raw.indexOf(':');
+      int c2 = c1 < 0 ? -1 : raw.indexOf(':', c1 + 1);
+      if (c2 < 0) {
         throw new IllegalArgumentException("Invalid message: " + raw);
       }
-      CommandMessage.Kind kind = CommandMessage.Kind.valueOf(parts.get(0));
-      String id = parts.get(1);
-      String name = parts.get(2);
+      int c3 = raw.indexOf(':', c2 + 1);
+
+      CommandMessage.Kind kind = CommandMessage.Kind.valueOf(raw.substring(0, c1));
+      String id = raw.substring(c1 + 1, c2);
+      String name = raw.substring(c2 + 1, c3 < 0 ? raw.length() : c3);
+
       List<String> params = new ArrayList<>();
-      for (int i = 3; i < parts.size(); i++) {
-        params.add(unescape(parts.get(i)));
+      int start = c3 + 1;
+      while (c3 >= 0) {
+        int next = raw.indexOf(':', start);
+        params.add(raw.substring(start, next < 0 ? raw.length() : next));
+        c3 = next;
+        start = next + 1;
       }
       return new CommandMessage(id, name, params, kind);
     }
 
-    private List<String> splitOnUnescapedColons(String s) {
-      List<String> out = new ArrayList<>();
-      StringBuilder cur = new StringBuilder();
-      boolean escaping = false;
-      for (int i = 0; i < s.length(); i++) {
-        char c = s.charAt(i);
-        if (escaping) {
-          cur.append(c);       // keep the escaped char as-is (we'll unescape later)
-          escaping = false;
-        } else if (c == '\\') {
-          escaping = true;     // next char is escaped
-          cur.append(c);       // keep the backslash so unescape() can process it
-        } else if (c == ':') {
-          out.add(cur.toString());
-          cur.setLength(0);
+    private CommandMessage deserializeEscaped(String raw) {
+      String kind = null;
+      String id = null;
+      String name = null;
+      List<String> params = new ArrayList<>();
+
+      int part = 0;
+      int start = 0;
+      int len = raw.length();
+      boolean dangling = false; // frame ends in an unpaired backslash
+      for (int i = 0; i <= len; i++) {
+        if (i < len) {
+          char c = raw.charAt(i);
+          if (c == '\\') {
+            i++;             // skip the escaped char; a trailing backslash stays in this part
+            if (i < len) continue;
+            dangling = true;
+          } else if (c != ':') {
+            continue;
+          }
+        }
+        int end = i;
+        if (part < 3) {
+          // header parts are taken verbatim (escapes kept)
+          String value = raw.substring(start, end);
+          if (dangling) value = value + '\\'; // the old splitter doubled a trailing backslash
+          if (part == 0) kind = value;
+          else if (part == 1) id = value;
+          else name = value;
         } else {
-          cur.append(c);
+          params.add(unescape(raw, start, end));
         }
+        part++;
+        start = i + 1;
       }
-      if (escaping) cur.append('\\'); // trailing backslash; keep it
-      out.add(cur.toString());
-      return out;
+      if (part < 3) {
+        throw new IllegalArgumentException("Invalid message: " + raw);
+      }
+      return new CommandMessage(id, name, params, CommandMessage.Kind.valueOf(kind));
+    }
+
+    private static int headerLength(CommandMessage.Kind kind, String id, String name) {
+      return kind.name().length() + String.valueOf(id).length() + String.valueOf(name).length() + 2;
     }
 
-    private String escape(String s) {
-      return s.replace("\\", "\\\\").replace(":", "\\:");
+    private static int paramsLength(List<String> params) {
+      int size = 0;
+      for (int i = 0, n = params.size(); i < n; i++) {
+        size += params.get(i).length() + 2; // separator + room for an escape or two
+      }
+      return size;
     }
 
-    private String unescape(String s) {
-      StringBuilder out = new StringBuilder();
-      boolean escaping = false;
-      for (int i = 0; i < s.length(); i++) {
+    private static void appendHeader(StringBuilder sb, CommandMessage.Kind kind, String id, String name) {
+      sb.append(kind.name()).append(':').append(id).append(':').append(name);
+    }
+
+    private static void appendEscaped(StringBuilder sb, String s) {
+      int len = s.length();
+      int from = 0;
+      for (int i = 0; i < len; i++) {
         char c = s.charAt(i);
-        if (escaping) {
-          // Only two escapes are defined: '\:' -> ':' and '\\' -> '\'.
-          if (c == ':' || c == '\\') out.append(c);
-          else { out.append('\\').append(c); } // preserve unknown escapes literally
-          escaping = false;
-        } else if (c == '\\') {
-          escaping = true;
-        } else {
+        if (c == '\\' || c == ':') {
+          sb.append(s, from, i).append('\\').append(c);
+          from = i + 1;
+        }
+      }
+      sb.append(s, from, len);
+    }
+
+    // Only two escapes are defined: '\:' -> ':' and '\\' -> '\'; unknown escapes and a
+    // trailing backslash are kept literally.
+    private static String unescape(String s, int from, int to) {
+      int bs = s.indexOf('\\', from);
+      if (bs < 0 || bs >= to) return s.substring(from, to);
+
+      StringBuilder out = new StringBuilder(to - from);
+      out.append(s, from, bs);
+      for (int i = bs; i < to; i++) {
+        char c = s.charAt(i);
+        if (c != '\\') {
           out.append(c);
+        } else if (i + 1 < to) {
+          char next = s.charAt(++i);
+          if (next != ':' && next != '\\') out.append('\\');
+          out.append(next);
+        } else {
+          out.append('\\');
         }
       }
-      if (escaping) out.append('\\'); // trailing backslash literal
       return out.toString();
     }
   }
 
+  // === Binary codec (negotiated via the WebSocket subprotocol) ===
+  // Layout: <kind:1 byte> <id> <name> <paramCount:varint> <param>...
+  // where every string is <length:varint><UTF-8 bytes>. No escaping, no separator scanning.
+  public static class BinaryCommandCodec {
+
+    public static final String SUBPROTOCOL = "todero.binary.v1";
+
+    private static final CommandMessage.Kind[] KINDS = CommandMessage.Kind.values();
+
+    public ByteBuffer encode(CommandMessage msg) {
+      List<String> params = msg.getParams();
+      int size = 1 + sizeOf(msg.getId()) + sizeOf(msg.getName()) + varintSize(params.size());
+      for (int i = 0, n = params.size(); i < n; i++) size += sizeOf(params.get(i));
+
+      ByteBuffer buf = ByteBuffer.allocate(size);
+      buf.put((byte) msg.getKind().ordinal());
+      putString(buf, msg.getId());
+      putString(buf, msg.getName());
+      putVarint(buf, params.size());
+      for (int i = 0, n = params.size(); i < n; i++) putString(buf, params.get(i));
+      return buf.flip();
+    }
+
+    /** Binary counterpart of {@link CommandCodec#serializeKeyValues}: params "KEY:VALUE", null values skipped. */
+    public ByteBuffer encodeKeyValues(CommandMessage.Kind kind, String id, String name, String... keysAndValues) {
+      int count = 0;
+      int size = 1 + sizeOf(id) + sizeOf(name);
+      for (int i = 1; i < keysAndValues.length; i += 2) {
+        if (keysAndValues[i] == null) continue;
+        int len = utf8Length(keysAndValues[i - 1]) + 1 + utf8Length(keysAndValues[i]);
+        size += varintSize(len) + len;
+        count++;
+      }
+      size += varintSize(count);
+
+      ByteBuffer buf = ByteBuffer.allocate(size);
+      buf.put((byte) kind.ordinal());
+      putString(buf, id);
+      putString(buf, name);
+      putVarint(buf, count);
+      for (int i = 1; i < keysAndValues.length; i += 2) {
+        String value = keysAndValues[i];
+        if (value == null) continue;
+        String key = keysAndValues[i - 1];
+        putVarint(buf, utf8Length(key) + 1 + utf8Length(value));
+        putUtf8(buf, key);
+        buf.put((byte) ':');
+        putUtf8(buf, value);
+      }
+      return buf.flip();
+    }
+
+    public CommandMessage decode(ByteBuffer buf) {
+      try {
+        int tag = buf.get();
+        if (tag < 0 || tag >= KINDS.length) {
+          throw new IllegalArgumentException("Invalid binary message: unknown kind " + tag);
+        }
+        String id = getString(buf);
+        String name = getString(buf);
+        int count = getVarint(buf);
+        List<String> params = new ArrayList<>(Math.min(count, 64));
+        for (int i = 0; i < count; i++) params.add(getString(buf));
+        return new CommandMessage(id, name, params, KINDS[tag]);
+      } catch (BufferUnderflowException e) {
+        throw new IllegalArgumentException("Invalid binary message: truncated");
+      }
+    }
+
+    private static int sizeOf(String s) {
+      int len = utf8Length(s);
+      return varintSize(len) + len;
+    }
+
+    private static void putString(ByteBuffer buf, String s) {
+      putVarint(buf, utf8Length(s));
+      putUtf8(buf, s);
+    }
+
+    private static String getString(ByteBuffer buf) {
+      int len = getVarint(buf);
+      if (len > buf.remaining()) throw new BufferUnderflowException();
+      String s;
+      if (buf.hasArray()) {
+        s = new String(buf.array(), buf.arrayOffset() + buf.position(), len, StandardCharsets.UTF_8);
+        buf.position(buf.position() + len);
+      } else {
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+        s = new String(bytes, StandardCharsets.UTF_8);
+      }
+      return s;
+    }
+
+    static int utf8Length(String s) {
+      int len = s.length();
+      int bytes = len;
+      for (int i = 0; i < len; i++) {
+        char c = s.charAt(i);
+        if (c >= 0x80) {
+          if (c < 0x800) bytes += 1;
+          else if (!Character.isSurrogate(c)) bytes += 2;
+          else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) { bytes += 2; i++; }
+          // an unpaired surrogate is written as a single '?'
+        }
+      }
+      return bytes;
+    }
+
+    // encodes straight into the buffer; unpaired surrogates become '?' like String.getBytes
+    private static void putUtf8(ByteBuffer buf, String s) {
+      int len = s.length();
+      for (int i = 0; i < len; i++) {
+        char c = s.charAt(i);
+        if (c < 0x80) {
+          buf.put((byte) c);
+        } else if (c < 0x800) {
+          buf.put((byte) (0xC0 | (c >> 6)));
+          buf.put((byte) (0x80 | (c & 0x3F)));
+        } else if (Character.isSurrogate(c)) {
+          if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(++i));
+            buf.put((byte) (0xF0 | (cp >> 18)));
+            buf.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+            buf.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+            buf.put((byte) (0x80 | (cp & 0x3F)));
+          } else {
+            buf.put((byte) '?');
+          }
+        } else {
+          buf.put((byte) (0xE0 | (c >> 12)));
+          buf.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+          buf.put((byte) (0x80 | (c & 0x3F)));
+        }
+      }
+    }
+
+    private static int varintSize(int v) {
+      int n = 1;
+      while ((v >>>= 7) != 0) n++;
+      return n;
+    }
+
+    private static void putVarint(ByteBuffer buf, int v) {
+      while ((v & ~0x7F) != 0) {
+        buf.put((byte) ((v & 0x7F) | 0x80));
+        v >>>= 7;
+      }
+      buf.put((byte) v);
+    }
+
+    private static int getVarint(ByteBuffer buf) {
+      int v = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+        byte b = buf.get();
+        v |= (b & 0x7F) << shift;
+        if (b >= 0) {
+          if (v < 0) throw new IllegalArgumentException("Invalid binary message: negative length");
+          return v;
+        }
+      }
+      throw new IllegalArgumentException("Invalid binary message: varint too long");
+    }
+  }
+
   // === Registry for concrete command handlers ===
   public interface CommandHandler {
     CommandMessage handle(CommandMessage req);
   }
 
+  // Non-blocking variant: the bus writes the response when the stage completes
+  public interface AsyncCommandHandler {
+    CompletionStage<CommandMessage> handle(CommandMessage req);
+  }
+
+  // For commands that act on the connection itself (e.g. SUBSCRIBE): gets the bus it arrived on
+  public interface BusCommandHandler {
+    CompletionStage<CommandMessage> handle(CommandBus bus, CommandMessage req);
+  }
+
   public static class CommandRegistry {
     private final Map<String, CommandHandler> handlers = new ConcurrentHashMap<>();
+    private final Map<String, AsyncCommandHandler> asyncHandlers = new ConcurrentHashMap<>();
+    private final Map<String, BusCommandHandler> busHandlers = new ConcurrentHashMap<>();
     public void register(String name, CommandHandler handler) {
+      asyncHandlers.remove(name);
+      busHandlers.remove(name);
       handlers.put(name, handler);
     }
+    public void registerAsync(String name, AsyncCommandHandler handler) {
+      handlers.remove(name);
+      busHandlers.remove(name);
+      asyncHandlers.put(name, handler);
+    }
+    public void registerWithBus(String name, BusCommandHandler handler) {
+      handlers.remove(name);
+      asyncHandlers.remove(name);
+      busHandlers.put(name, handler);
+    }
     public Optional<CommandHandler> get(String name) {
       return Optional.ofNullable(handlers.get(name));
     }
+    // sync handlers are adapted, so callers only deal with one contract
+    public Optional<AsyncCommandHandler> getAsync(String name) {
+      AsyncCommandHandler async = asyncHandlers.get(name);
+      if (async != null) return Optional.of(async);
+      CommandHandler sync = handlers.get(name);
+      return sync == null ? Optional.empty() : Optional.of(req -> CompletableFuture.completedFuture(sync.handle(req)));
+    }
+    // what the bus dispatches to: every kind of handler behind one contract
+    public Optional<BusCommandHandler> getForBus(String name) {
+      BusCommandHandler withBus = busHandlers.get(name);
+      if (withBus != null) return Optional.of(withBus);
+      return getAsync(name).map(async -> (bus, req) -> async.handle(req));
+    }
+  }
+
+  // Order in which a bus writes responses when handlers complete out of order
+  public enum ResponseOrder {
+    REQUEST,    // same order the requests arrived on this bus (default)
+    COMPLETION  // as soon as each handler completes
   }
 
+  // === Correlation ids ===
+  /** Produces request ids; they only need to be unique among a bus's (connection's) pending requests. */
+  public interface IdGenerator {
+    String nextId();
+
+    /**
+     * Default: a 3-char random session prefix plus a base-36 counter, e.g. "k3f-1", "k3f-2s".
+     * No SecureRandom on the hot path and a few bytes on the wire instead of 36.
+     */
+    static IdGenerator counter() {
+      return new CounterIdGenerator(randomPrefix() + "-");
+    }
+
+    static IdGenerator counter(String prefix) {
+      return new CounterIdGenerator(prefix);
+    }
+
+    /** The previous behaviour: a random UUID per request. */
+    static IdGenerator uuid() {
+      return () -> UUID.randomUUID().toString();
+    }
+
+    private static String randomPrefix() {
+      String p = Integer.toString(ThreadLocalRandom.current().nextInt(36 * 36 * 36), 36);
+      return "000".substring(p.length()) + p;
+    }
+  }
+
+  static final class CounterIdGenerator implements IdGenerator {
+    private final String prefix;
+    private final AtomicLong counter = new AtomicLong();
+
+    CounterIdGenerator(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public String nextId() {
+      return prefix + Long.toString(counter.incrementAndGet(), 36);
+    }
+  }
+
+  // === Request encoded once and written to many buses (fan-out) ===
+  /**
+   * A KEY:VALUE request whose wire frame is built at most once per framing (text / binary)
+   * no matter how many connections it is sent to. Every bus tracks the same id in its own
+   * pending map. All buses sending it must use the same codecs.
+   */
+  public static final class PreparedRequest {
+    private final String id;
+    private final String name;
+    private final String[] keysAndValues;
+    private volatile String text;
+    private volatile ByteBuffer binary;
+
+    public PreparedRequest(String id, String name, String... keysAndValues) {
+      this.id = id;
+      this.name = name;
+      this.keysAndValues = keysAndValues;
+    }
+
+    // "~" never appears in a CounterIdGenerator session prefix, so fan-out ids can't collide with a bus's own
+    private static final IdGenerator IDS = IdGenerator.counter("~");
+
+    public static PreparedRequest keyValues(String name, String... keysAndValues) {
+      return new PreparedRequest(IDS.nextId(), name, keysAndValues);
+    }
+
+    public String getId() { return id; }
+
+    String text(CommandCodec codec) {
+      String t = text;
+      if (t == null) {
+        text = t = codec.serializeKeyValues(CommandMessage.Kind.REQUEST, id, name, keysAndValues);
+      }
+      return t;
+    }
+
+    /** A view over the shared encoded bytes; each socket write consumes its own position. */
+    ByteBuffer binary(BinaryCommandCodec codec) {
+      ByteBuffer b = binary;
+      if (b == null) {
+        binary = b = codec.encodeKeyValues(CommandMessage.Kind.REQUEST, id, name, keysAndValues);
+      }
+      return b.duplicate();
+    }
+  }
+
+  // -Dcommands.maxPending: requests awaiting a response per bus; beyond it request() fails fast
+  static final int MAX_PENDING = Integer.getInteger("commands.maxPending", 10_000);
+
   // === CommandBus with send/request/response correlation ===
+  /** The peer answered a request with an ERROR frame; {@link #getError()} is that frame. */
+  public static class CommandErrorException extends RuntimeException {
+    private final CommandMessage error;
+
+    public CommandErrorException(CommandMessage error) {
+      super(String.join(" ", error.getParams()));
+      this.error = error;
+    }
+
+    public CommandMessage getError() { return error; }
+  }
+
   public static class CommandBus {
+    private record Pending(CompletableFuture<CommandMessage> future, TimingWheel.Timeout timeout) {}
+
     private final CommandRegistry registry;
     private final CommandCodec codec;
-    private final Map<String, CompletableFuture<CommandMessage>> pending = new ConcurrentHashMap<>();
-    private Consumer<String> outboundWriter;
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    private volatile int maxPending = MAX_PENDING;
+    private volatile IdGenerator idGenerator = IdGenerator.counter();
+    private volatile Executor handlerExecutor; // null: handlers run inline on the receiving thread
+    // commands handed to handlerExecutor whose response isn't ready yet (queued, running or async)
+    private final AtomicInteger handlersInFlight = new AtomicInteger();
+    private volatile int maxHandlersInFlight = Integer.MAX_VALUE;
+    private volatile Semaphore globalHandlersInFlight; // shared by all buses; null: no global cap
+    private volatile Consumer<String> outboundWriter;
+
+    // set when the connection negotiated binary framing; text writer is then unused
+    private volatile BinaryCommandCodec binaryCodec;
+    private volatile Consumer<ByteBuffer> binaryWriter;
 
     private final long    defaultTimeout;
     private final TimeUnit defaultTimeoutUnit;
 
+    private volatile ResponseOrder responseOrder = ResponseOrder.REQUEST;
+    private volatile Predicate<String> commandGuard = name -> true; // which command names this bus may run
+    private volatile Object attachment; // per-connection state for BusCommandHandlers
+    private CompletableFuture<Void> responseTail = CompletableFuture.completedFuture(null); // guarded by this
+
     public CommandBus(CommandRegistry registry,
                       CommandCodec codec,
                       long defaultTimeout,
@@ -148,33 +576,111 @@ public class CommandFramework {
       this.defaultTimeoutUnit = defaultTimeoutUnit;
     }
 
+    // bus bound to a single connection's writer (one bus per socket, no shared state but registry/codec)
+    public CommandBus(CommandRegistry registry,
+                      CommandCodec codec,
+                      Consumer<String> outboundWriter,
+                      long defaultTimeout,
+                      TimeUnit defaultTimeoutUnit)
+    {
+      this(registry, codec, defaultTimeout, defaultTimeoutUnit);
+      this.outboundWriter = outboundWriter;
+    }
+
     public void setOutboundWriter(Consumer<String> outboundWriter) {
       this.outboundWriter = outboundWriter;
     }
 
+    /** Switch this bus to binary frames (both directions). */
+    public void useBinary(BinaryCommandCodec binaryCodec, Consumer<ByteBuffer> binaryWriter) {
+      this.binaryCodec = binaryCodec;
+      this.binaryWriter = binaryWriter;
+    }
+
+    public boolean isBinary() {
+      return binaryWriter != null;
+    }
+
+    /** Commands whose name fails the guard are answered with a Forbidden ERROR. */
+    public void setCommandGuard(Predicate<String> commandGuard) {
+      this.commandGuard = commandGuard;
+    }
+
+    public void setAttachment(Object attachment) {
+      this.attachment = attachment;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T getAttachment() {
+      return (T) attachment;
+    }
+
+    public void setResponseOrder(ResponseOrder responseOrder) {
+      this.responseOrder = responseOrder;
+    }
+
     public CommandCodec getCodec() {
       return this.codec;
     }
 
+    /**
+     * Runs handlers on this executor instead of the thread that called receive(). Responses still
+     * go out in the configured {@link ResponseOrder}. A rejected command is answered with a Busy ERROR.
+     */
+    public void setHandlerExecutor(Executor handlerExecutor) {
+      setHandlerExecutor(handlerExecutor, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * As {@link #setHandlerExecutor(Executor)}, with at most {@code maxInFlight} commands of this bus,
+     * and one {@code global} permit each, outstanding from dispatch until their response stage
+     * completes, so async handlers count until they actually answer. Over either cap: Busy ERROR.
+     */
+    public void setHandlerExecutor(Executor handlerExecutor, int maxInFlight, Semaphore global) {
+      this.maxHandlersInFlight = maxInFlight;
+      this.globalHandlersInFlight = global;
+      this.handlerExecutor = handlerExecutor;
+    }
+
+    public void setIdGenerator(IdGenerator idGenerator) {
+      this.idGenerator = idGenerator;
+    }
+
+    /** Cap on requests awaiting a response on this bus. */
+    public void setMaxPending(int maxPending) {
+      if (maxPending <= 0) throw new IllegalArgumentException("maxPending must be > 0");
+      this.maxPending = maxPending;
+    }
+
+    public int pendingCount() {
+      return pending.size();
+    }
+
+    // === one-way: nothing is tracked, a RESPONSE the peer may still send is ignored ===
+
+    public void send(String name, String... params) {
+      send(new CommandMessage(idGenerator.nextId(), name, List.of(params), CommandMessage.Kind.REQUEST));
+    }
+
+    public void sendKeyValues(String name, String... keysAndValues) {
+      writeKeyValues(idGenerator.nextId(), name, keysAndValues);
+    }
+
+    public void send(PreparedRequest prepared) {
+      writePrepared(prepared);
+    }
+
     // request with custom timeout
     public CompletableFuture<CommandMessage> request(String name,
                                                      long timeout,
                                                      TimeUnit unit,
                                                      String... params)
     {
-      String id = UUID.randomUUID().toString();
+      String id = idGenerator.nextId();
       CommandMessage msg = new CommandMessage(id, name, List.of(params), CommandMessage.Kind.REQUEST);
 
-      CompletableFuture<CommandMessage> future = new CompletableFuture<>();
-      pending.put(id, future);
-
-      future.orTimeout(timeout, unit)
-          .exceptionally(ex -> {
-            pending.remove(id);
-            return null;
-          });
-
-      outboundWriter.accept(codec.serialize(msg));
+      CompletableFuture<CommandMessage> future = track(id, timeout, unit);
+      if (!future.isDone()) send(msg);
       return future;
     }
 
@@ -183,21 +689,191 @@ public class CommandFramework {
       return request(name, defaultTimeout, defaultTimeoutUnit, params);
     }
 
+    /**
+     * Request whose params are KEY:VALUE pairs given as alternating keys and values
+     * (null values are skipped). Encodes straight to the wire frame.
+     */
+    public CompletableFuture<CommandMessage> requestKeyValues(String name, String... keysAndValues) {
+      String id = idGenerator.nextId();
+      CompletableFuture<CommandMessage> future = track(id, defaultTimeout, defaultTimeoutUnit);
+      if (!future.isDone()) writeKeyValues(id, name, keysAndValues);
+      return future;
+    }
+
+    private void writeKeyValues(String id, String name, String... keysAndValues) {
+      Consumer<ByteBuffer> binary = binaryWriter;
+      if (binary != null) {
+        binary.accept(binaryCodec.encodeKeyValues(CommandMessage.Kind.REQUEST, id, name, keysAndValues));
+      } else {
+        outboundWriter.accept(codec.serializeKeyValues(CommandMessage.Kind.REQUEST, id, name, keysAndValues));
+      }
+    }
+
+    /** Sends a request that may also be going to other buses; the frame is encoded once overall. */
+    public CompletableFuture<CommandMessage> request(PreparedRequest prepared) {
+      CompletableFuture<CommandMessage> future = track(prepared.getId(), defaultTimeout, defaultTimeoutUnit);
+      if (!future.isDone()) writePrepared(prepared);
+      return future;
+    }
+
+    private void writePrepared(PreparedRequest prepared) {
+      Consumer<ByteBuffer> binary = binaryWriter;
+      if (binary != null) {
+        binary.accept(prepared.binary(binaryCodec));
+      } else {
+        outboundWriter.accept(prepared.text(codec));
+      }
+    }
+
+    // Over the cap the returned future is already failed and the caller must not send.
+    // The timeout lives on the shared timing wheel and is cancelled when the response arrives.
+    private CompletableFuture<CommandMessage> track(String id, long timeout, TimeUnit unit) {
+      CompletableFuture<CommandMessage> future = new CompletableFuture<>();
+      if (pending.size() >= maxPending) {
+        future.completeExceptionally(new IllegalStateException("Too many pending requests (max " + maxPending + ")"));
+        return future;
+      }
+      TimingWheel.Timeout t = TimingWheel.shared().schedule(() -> {
+        Pending p = pending.remove(id);
+        if (p != null) p.future().completeExceptionally(new TimeoutException());
+      }, timeout, unit);
+      pending.put(id, new Pending(future, t));
+      // completed or cancelled by the caller: drop the entry and its timer right away
+      future.whenComplete((r, ex) -> {
+        Pending p = pending.remove(id);
+        if (p != null) p.timeout().cancel();
+      });
+      return future;
+    }
+
     public void receive(String raw) {
-      CommandMessage msg = codec.deserialize(raw);
+      dispatch(codec.deserialize(raw));
+    }
+
+    public void receive(ByteBuffer frame) {
+      BinaryCommandCodec binary = binaryCodec;
+      if (binary == null) {
+        throw new IllegalStateException("Binary frame on a text connection");
+      }
+      dispatch(binary.decode(frame));
+    }
 
-      if (msg.getKind() == CommandMessage.Kind.RESPONSE) {
-        CompletableFuture<CommandMessage> future = pending.remove(msg.getId());
-        if (future != null) {
-          future.complete(msg);
+    private void dispatch(CommandMessage msg) {
+      if (msg.getKind() == CommandMessage.Kind.RESPONSE || msg.getKind() == CommandMessage.Kind.ERROR) {
+        Pending p = pending.remove(msg.getId());
+        if (p != null) {
+          p.timeout().cancel();
+          if (msg.getKind() == CommandMessage.Kind.ERROR) p.future().completeExceptionally(new CommandErrorException(msg));
+          else p.future().complete(msg);
         }
         return;
       }
 
-      registry.get(msg.getName()).ifPresent(handler -> {
-        CommandMessage response = handler.handle(msg);
-        outboundWriter.accept(codec.serialize(response));
+      registry.getForBus(msg.getName()).ifPresent(handler -> {
+        if (!commandGuard.test(msg.getName())) {
+          respond(msg, CompletableFuture.completedFuture(new CommandMessage(
+              msg.getId(), "ERROR", List.of("Forbidden: " + msg.getName()), CommandMessage.Kind.ERROR)));
+          return;
+        }
+        Executor executor = handlerExecutor;
+        if (executor == null) {
+          respond(msg, invoke(handler, msg));
+          return;
+        }
+        // take this request's place in the response order now; the handler fills it in later
+        CompletableFuture<CommandMessage> result = new CompletableFuture<>();
+        respond(msg, result);
+        String busy = admitHandler();
+        if (busy != null) {
+          result.complete(new CommandMessage(msg.getId(), "ERROR", List.of("Busy: " + busy), CommandMessage.Kind.ERROR));
+          return;
+        }
+        result.whenComplete((r, ex) -> releaseHandler());
+        try {
+          executor.execute(() -> invoke(handler, msg).whenComplete((r, ex) -> {
+            if (ex != null) result.completeExceptionally(ex);
+            else result.complete(r);
+          }));
+        } catch (RejectedExecutionException e) {
+          result.complete(new CommandMessage(
+              msg.getId(), "ERROR", List.of("Busy: " + e.getMessage()), CommandMessage.Kind.ERROR));
+        }
       });
     }
+
+    // null when admitted, otherwise why not
+    private String admitHandler() {
+      int max = maxHandlersInFlight;
+      if (handlersInFlight.incrementAndGet() > max) {
+        handlersInFlight.decrementAndGet();
+        return "connection in-flight limit reached (" + max + ")";
+      }
+      Semaphore global = globalHandlersInFlight;
+      if (global != null && !global.tryAcquire()) {
+        handlersInFlight.decrementAndGet();
+        return "global in-flight limit reached";
+      }
+      return null;
+    }
+
+    private void releaseHandler() {
+      Semaphore global = globalHandlersInFlight;
+      if (global != null) global.release();
+      handlersInFlight.decrementAndGet();
+    }
+
+    private CompletionStage<CommandMessage> invoke(BusCommandHandler handler, CommandMessage msg) {
+      try {
+        return handler.handle(this, msg);
+      } catch (RuntimeException e) {
+        return CompletableFuture.failedFuture(e);
+      }
+    }
+
+    private void respond(CommandMessage req, CompletionStage<CommandMessage> stage) {
+      CompletableFuture<CommandMessage> response = stage.toCompletableFuture()
+          .exceptionally(ex -> errorFor(req, ex));
+
+      if (responseOrder == ResponseOrder.COMPLETION) {
+        response.thenAccept(this::write);
+        return;
+      }
+      // Chain behind the previous response; runs inline when everything before it is done
+      synchronized (this) {
+        responseTail = responseTail.thenCombine(response, (ignored, r) -> {
+          write(r);
+          return null;
+        });
+      }
+    }
+
+    // never throws: a failed write must not break the REQUEST-order chain for later responses
+    private void write(CommandMessage response) {
+      if (response == null) return;
+      try {
+        send(response);
+      } catch (RuntimeException e) {
+        WRITE_FAILED.log("Response {} not written: {}", response.getId(), e.toString());
+      }
+    }
+
+    private void send(CommandMessage msg) {
+      Consumer<ByteBuffer> binary = binaryWriter;
+      if (binary != null) {
+        binary.accept(binaryCodec.encode(msg));
+      } else {
+        outboundWriter.accept(codec.serialize(msg));
+      }
+    }
+
+    private static CommandMessage errorFor(CommandMessage req, Throwable ex) {
+      Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+      return new CommandMessage(
+          req.getId(),
+          "ERROR",
+          List.of(cause.getClass().getSimpleName() + ": " + cause.getMessage()),
+          CommandMessage.Kind.ERROR
+      );
+    }
   }
 }
@@ -0,0 +1,37 @@
+package com.social100.todero.cmd;
+
+import com.social100.todero.log.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Executors for running command handlers off the WebSocket decoder threads. */
+public final class HandlerExecutors {
+  private static final Log LOG = Log.get("HandlerExecutors");
+
+  private HandlerExecutors() {}
+
+  /**
+   * A virtual-thread-per-task executor on Java 21+. The build targets 17, so it is looked up
+   * reflectively; older runtimes get a fixed pool of {@code fallbackThreads} daemon threads.
+   */
+  public static ExecutorService virtualThreadsOrPool(int fallbackThreads) {
+    try {
+      ExecutorService virtual = (ExecutorService) Executors.class
+          .getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+      LOG.info("Command handlers run on virtual threads");
+      return virtual;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      LOG.warn("Virtual threads unavailable (Java {}), using {} handler threads",
+          Runtime.version().feature(), fallbackThreads);
+      AtomicInteger n = new AtomicInteger();
+      return Executors.newFixedThreadPool(fallbackThreads, r -> {
+        Thread t = new Thread(r, "command-handler-" + n.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      });
+    }
+  }
+}
@@ -45,23 +45,120 @@ public final class ParamParser {
         }
     }
 
+    /**
+     * Immutable, compiled spec. build() assigns every canonical key a slot (0..63), builds an
+     * open-addressing table from key/alias to slot that is probed straight from the raw
+     * parameter chars (no substring, no toUpperCase), and precomputes required/default bitmasks.
+     */
     public static final class ParamSpec {
+        static final int MAX_KEYS = 64;
+
         final Map<String, KeySpec> byKey;       // normalized key -> spec
         final Map<String, String> defaults;     // normalized key -> default value
         final boolean allowUnknownKeys;
         final char separator;
         final boolean caseInsensitiveKeys;
 
+        // compiled form
+        final KeySpec[] slots;                  // canonical specs in declaration order
+        final String[] slotNames;               // canonical name, upper-cased (as reported by toString)
+        final String[] defaultValues;           // per slot, null if none
+        final long requiredMask;
+        final long defaultMask;
+        private final String[] tableKeys;       // normalized key/alias, null = empty bucket
+        private final int[] tableSlots;
+        private final int tableMask;
+
         private ParamSpec(Builder b) {
             this.byKey = Collections.unmodifiableMap(b.byKey);
             this.defaults = Collections.unmodifiableMap(b.defaults);
             this.allowUnknownKeys = b.allowUnknownKeys;
             this.separator = b.separator;
             this.caseInsensitiveKeys = b.caseInsensitiveKeys;
+
+            Map<KeySpec, Integer> slotOf = new IdentityHashMap<>();
+            List<KeySpec> ordered = new ArrayList<>();
+            for (KeySpec ks : b.byKey.values()) {
+                if (!slotOf.containsKey(ks)) {
+                    slotOf.put(ks, ordered.size());
+                    ordered.add(ks);
+                }
+            }
+            if (ordered.size() > MAX_KEYS) {
+                throw new IllegalArgumentException("ParamSpec supports at most " + MAX_KEYS + " keys");
+            }
+            this.slots = ordered.toArray(new KeySpec[0]);
+            this.slotNames = new String[slots.length];
+            this.defaultValues = new String[slots.length];
+            long required = 0, withDefault = 0;
+            for (int i = 0; i < slots.length; i++) {
+                slotNames[i] = slots[i].name.toUpperCase(Locale.ROOT);
+                if (slots[i].required) required |= 1L << i;
+                String defVal = b.defaults.get(slotNames[i]);
+                if (defVal != null) {
+                    defaultValues[i] = defVal;
+                    withDefault |= 1L << i;
+                }
+            }
+            this.requiredMask = required;
+            this.defaultMask = withDefault;
+
+            int cap = Integer.highestOneBit(Math.max(4, b.byKey.size() * 4) - 1) << 1;
+            this.tableKeys = new String[cap];
+            this.tableSlots = new int[cap];
+            this.tableMask = cap - 1;
+            for (Map.Entry<String, KeySpec> e : b.byKey.entrySet()) {
+                String k = e.getKey();
+                int h = hash(k, 0, k.length()) & tableMask;
+                while (tableKeys[h] != null) h = (h + 1) & tableMask;
+                tableKeys[h] = k;
+                tableSlots[h] = slotOf.get(e.getValue());
+            }
         }
 
         public static Builder builder() { return new Builder(); }
 
+        /** Parses KEY:VALUE params against this spec. */
+        public ParsedParams parse(List<String> params) {
+            return ParamParser.parse(params, this);
+        }
+
+        // Slot for the key in s[from, to), or -1. Only non-ASCII keys in case-insensitive
+        // mode take the allocating toUpperCase path, so results match the old normalization.
+        int slotOf(String s, int from, int to) {
+            if (caseInsensitiveKeys) {
+                for (int i = from; i < to; i++) {
+                    if (s.charAt(i) >= 0x80) {
+                        KeySpec ks = byKey.get(s.substring(from, to).toUpperCase(Locale.ROOT));
+                        return ks == null ? -1 : indexOf(ks);
+                    }
+                }
+            }
+            int len = to - from;
+            for (int h = hash(s, from, to) & tableMask; tableKeys[h] != null; h = (h + 1) & tableMask) {
+                String k = tableKeys[h];
+                if (k.length() == len && s.regionMatches(caseInsensitiveKeys, from, k, 0, len)) {
+                    return tableSlots[h];
+                }
+            }
+            return -1;
+        }
+
+        private int indexOf(KeySpec ks) {
+            for (int i = 0; i < slots.length; i++) if (slots[i] == ks) return i;
+            return -1;
+        }
+
+        private int hash(String s, int from, int to) {
+            int h = 0;
+            for (int i = from; i < to; i++) {
+                char c = s.charAt(i);
+                if (caseInsensitiveKeys && c >= 'a' && c <= 'z') c -= 32;
+                h = 31 * h + c;
+            }
+            return h ^ (h >>> 16);
+        }
+
         public static final class Builder {
             private final Map<String, KeySpec> byKey = new LinkedHashMap<>();
             private final Map<String, String> defaults = new LinkedHashMap<>();
@@ -103,31 +200,85 @@ public final class ParamParser {
         }
     }
 
+    /** Flat, slot-indexed results: one entry per spec key, plus unknown keys if the spec allows them. */
     public static final class ParsedParams {
-        private final Map<String, List<String>> values; // canonical key -> list of values
         private final ParamSpec spec;
+        private final Object[] values;          // per slot: String, or List<String> for multi keys
+        private long present;                   // bit per slot
+        private Map<String, List<String>> unknown; // normalized key -> values, only if allowUnknownKeys
 
-        ParsedParams(ParamSpec spec, Map<String, List<String>> values) {
+        ParsedParams(ParamSpec spec) {
             this.spec = spec;
-            this.values = values;
+            this.values = new Object[spec.slots.length];
         }
 
-        private String norm(String k) {
-            return spec.caseInsensitiveKeys ? k.toUpperCase(Locale.ROOT) : k;
+        @SuppressWarnings("unchecked")
+        void add(int slot, String val) {
+            if (spec.slots[slot].multi) {
+                Object cur = values[slot];
+                List<String> list;
+                if (cur == null) {
+                    list = new ArrayList<>(2);
+                    values[slot] = list;
+                } else {
+                    list = (List<String>) cur;
+                }
+                list.add(val);
+            } else {
+                values[slot] = val;
+            }
+            present |= 1L << slot;
+        }
+
+        boolean isPresent(int slot) {
+            return (present & (1L << slot)) != 0;
+        }
+
+        void addUnknown(String normKey, String val) {
+            if (unknown == null) unknown = new LinkedHashMap<>();
+            unknown.computeIfAbsent(normKey, k -> new ArrayList<>()).add(val);
+        }
+
+        private int slot(String key) {
+            return spec.slotOf(key, 0, key.length());
+        }
+
+        private List<String> unknownValues(String key) {
+            if (unknown == null) return null;
+            return unknown.get(spec.caseInsensitiveKeys ? key.toUpperCase(Locale.ROOT) : key);
         }
 
         public boolean has(String key) {
-            return values.containsKey(norm(key));
+            int slot = slot(key);
+            return slot >= 0 ? isPresent(slot) : unknownValues(key) != null;
         }
 
+        @SuppressWarnings("unchecked")
         public String get(String key) {
-            List<String> vs = values.get(norm(key));
-            return (vs == null || vs.isEmpty()) ? null : vs.get(vs.size() - 1);
+            int slot = slot(key);
+            if (slot < 0) {
+                List<String> vs = unknownValues(key);
+                return (vs == null || vs.isEmpty()) ? null : vs.get(vs.size() - 1);
+            }
+            Object v = values[slot];
+            if (v instanceof List) {
+                List<String> vs = (List<String>) v;
+                return vs.isEmpty() ? null : vs.get(vs.size() - 1);
+            }
+            return (String) v;
         }
 
+        @SuppressWarnings("unchecked")
         public List<String> getAll(String key) {
-            List<String> vs = values.get(norm(key));
-            return (vs == null) ? List.of() : List.copyOf(vs);
+            int slot = slot(key);
+            if (slot < 0) {
+                List<String> vs = unknownValues(key);
+                return (vs == null) ? List.of() : List.copyOf(vs);
+            }
+            Object v = values[slot];
+            if (v == null) return List.of();
+            if (v instanceof List) return List.copyOf((List<String>) v);
+            return List.of((String) v);
         }
 
         public String getOrDefault(String key, String defVal) {
@@ -142,7 +293,12 @@ public final class ParamParser {
         }
 
         @Override public String toString() {
-            return "ParsedParams" + values;
+            Map<String, List<String>> view = new LinkedHashMap<>();
+            for (int i = 0; i < values.length; i++) {
+                if (isPresent(i)) view.put(spec.slotNames[i], getAll(spec.slotNames[i]));
+            }
+            if (unknown != null) view.putAll(unknown);
+            return "ParsedParams" + view;
         }
     }
 
@@ -150,69 +306,62 @@ public final class ParamParser {
     public static ParsedParams parse(List<String> params, ParamSpec spec) {
         if (params == null) params = List.of();
 
-        // Build reverse lookup from normalized alias->canonical KeySpec
-        Map<String, KeySpec> lookup = spec.byKey;
-        Map<String, List<String>> out = new LinkedHashMap<>();
+        ParsedParams out = new ParsedParams(spec);
 
-        for (String raw : params) {
+        for (int p = 0, n = params.size(); p < n; p++) {
+            String raw = params.get(p);
             if (raw == null) continue;
             int idx = raw.indexOf(spec.separator);
             if (idx <= 0) {
                 throw new IllegalArgumentException("Malformed parameter: '" + raw + "'. Expected KEY" + spec.separator + "VALUE");
             }
 
-            String keyRaw = raw.substring(0, idx).trim();
+            // trimmed key bounds, same as substring(0, idx).trim()
+            int kFrom = 0, kTo = idx;
+            while (kFrom < kTo && raw.charAt(kFrom) <= ' ') kFrom++;
+            while (kTo > kFrom && raw.charAt(kTo - 1) <= ' ') kTo--;
+
             String val = raw.substring(idx + 1); // do not trim internally; preserve user content
-            String normKey = spec.caseInsensitiveKeys ? keyRaw.toUpperCase(Locale.ROOT) : keyRaw;
 
-            KeySpec ks = lookup.get(normKey);
-            if (ks == null) {
+            int slot = spec.slotOf(raw, kFrom, kTo);
+            if (slot < 0) {
+                String keyRaw = raw.substring(kFrom, kTo);
                 if (!spec.allowUnknownKeys) {
                     throw new IllegalArgumentException("Unknown parameter key: '" + keyRaw + "'");
-                } else {
-                    // Treat unknown as single-value unless you want to collect them separately.
-                    out.computeIfAbsent(normKey, k -> new ArrayList<>()).add(val);
-                    continue;
                 }
+                // Treat unknown as single-value unless you want to collect them separately.
+                out.addUnknown(spec.caseInsensitiveKeys ? keyRaw.toUpperCase(Locale.ROOT) : keyRaw, val);
+                continue;
             }
 
-            if (!ks.allowEmpty && (val == null || val.isEmpty())) {
+            KeySpec ks = spec.slots[slot];
+            if (!ks.allowEmpty && val.isEmpty()) {
                 throw new IllegalArgumentException("Empty value not allowed for key: " + ks.name);
             }
 
-            if (ks.validator != null && val != null && !ks.validator.test(val)) {
+            if (ks.validator != null && !ks.validator.test(val)) {
                 throw new IllegalArgumentException("Invalid value for key '" + ks.name + "': " + val);
             }
 
-            List<String> list = out.computeIfAbsent(ks.name.toUpperCase(Locale.ROOT), k -> new ArrayList<>());
-            if (!ks.multi && !list.isEmpty()) {
+            if (!ks.multi && out.isPresent(slot)) {
                 throw new IllegalArgumentException("Duplicate key not allowed: " + ks.name);
             }
-            list.add(val);
+            out.add(slot, val);
         }
 
-        // Apply defaults & required checks
-        for (KeySpec ks : new LinkedHashSet<>(lookup.values())) {
-            String canon = ks.name.toUpperCase(Locale.ROOT);
-            if (!out.containsKey(canon)) {
-                if (ks.required) {
-                    // default present?
-                    String defVal = spec.defaults.get(canon);
-                    if (defVal != null) {
-                        out.put(canon, new ArrayList<>(List.of(defVal)));
-                    } else {
-                        throw new IllegalArgumentException("Missing required key: " + ks.name);
-                    }
-                } else {
-                    // optional with default
-                    String defVal = spec.defaults.get(canon);
-                    if (defVal != null) {
-                        out.put(canon, new ArrayList<>(List.of(defVal)));
-                    }
-                }
-            }
+        // Apply defaults & required checks (bitmasks precomputed in ParamSpec)
+        long all = spec.slots.length == 64 ? -1L : (1L << spec.slots.length) - 1;
+        long missing = all & ~out.present;
+        long fill = missing & spec.defaultMask;
+        for (long m = fill; m != 0; m &= m - 1) {
+            int slot = Long.numberOfTrailingZeros(m);
+            out.add(slot, spec.defaultValues[slot]);
+        }
+        long unmet = missing & spec.requiredMask & ~spec.defaultMask;
+        if (unmet != 0) {
+            throw new IllegalArgumentException("Missing required key: " + spec.slots[Long.numberOfTrailingZeros(unmet)].name);
         }
 
-        return new ParsedParams(spec, out);
+        return out;
     }
 }
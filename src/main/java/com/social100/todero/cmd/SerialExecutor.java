@@ -0,0 +1,73 @@
+package com.social100.todero.cmd;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs tasks one at a time, in submission order, on a shared executor: one instance per
+ * connection keeps that connection's commands ordered while different connections run in
+ * parallel. It does not bound its queue; callers admit work first (see
+ * {@link CommandFramework.CommandBus#setHandlerExecutor(Executor, int, java.util.concurrent.Semaphore)}).
+ */
+public final class SerialExecutor implements Executor {
+
+  // after this many tasks the drainer hands its thread back, so one busy connection can't hog it
+  private static final int TASKS_PER_TURN = 64;
+
+  private final Executor delegate;
+
+  // guarded by this
+  private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+  private boolean scheduled;
+
+  public SerialExecutor(Executor delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    synchronized (this) {
+      tasks.add(task);
+      if (scheduled) return;
+      scheduled = true;
+    }
+    schedule();
+  }
+
+  public synchronized int queued() {
+    return tasks.size();
+  }
+
+  private void schedule() {
+    try {
+      delegate.execute(this::drain);
+    } catch (RejectedExecutionException e) {
+      // shared executor shut down: drop everything queued here
+      synchronized (this) {
+        tasks.clear();
+        scheduled = false;
+      }
+      throw e;
+    }
+  }
+
+  private void drain() {
+    for (int i = 0; i < TASKS_PER_TURN; i++) {
+      Runnable task;
+      synchronized (this) {
+        task = tasks.poll();
+        if (task == null) {
+          scheduled = false;
+          return;
+        }
+      }
+      try {
+        task.run();
+      } catch (RuntimeException ignored) {
+        // the task reports its own failure; keep draining
+      }
+    }
+    schedule(); // more work left: go to the back of the shared executor's line
+  }
+}
@@ -0,0 +1,168 @@
+package com.social100.todero.cmd;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timing wheel for request timeouts: scheduling and cancelling are O(1) and allocate one
+ * small node, instead of a delayed task on the JDK scheduler per request.
+ *
+ * One daemon thread advances the wheel every {@code tickMs}. New and cancelled timeouts are
+ * handed to it through lock-free queues, so callers never touch the buckets. Expiry is accurate
+ * to one tick; tasks run on the wheel thread and must be short.
+ */
+public final class TimingWheel {
+
+  private static final int PENDING = 0, CANCELLED = 1, EXPIRED = 2;
+
+  /** Handle returned by {@link #schedule}. */
+  public final class Timeout {
+    private final Runnable task;
+    private final long deadlineTick;
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+    // bucket links, wheel thread only
+    private long remainingRounds;
+    private Timeout prev, next;
+    private Bucket bucket;
+
+    private Timeout(Runnable task, long deadlineTick) {
+      this.task = task;
+      this.deadlineTick = deadlineTick;
+    }
+
+    /** Returns false if it already fired or was cancelled. */
+    public boolean cancel() {
+      if (!state.compareAndSet(PENDING, CANCELLED)) return false;
+      cancelled.add(this);
+      return true;
+    }
+
+    public boolean isExpired() {
+      return state.get() == EXPIRED;
+    }
+  }
+
+  private static final class Bucket {
+    Timeout head, tail;
+
+    void add(Timeout t) {
+      t.bucket = this;
+      if (head == null) {
+        head = tail = t;
+      } else {
+        tail.next = t;
+        t.prev = tail;
+        tail = t;
+      }
+    }
+
+    void remove(Timeout t) {
+      if (t.bucket != this) return;
+      if (t.prev != null) t.prev.next = t.next; else head = t.next;
+      if (t.next != null) t.next.prev = t.prev; else tail = t.prev;
+      t.prev = t.next = null;
+      t.bucket = null;
+    }
+  }
+
+  private static final TimingWheel SHARED = new TimingWheel(
+      "CommandBus-timeouts",
+      Long.getLong("commands.timeoutTickMs", 100),
+      Integer.getInteger("commands.timeoutWheelSize", 512));
+
+  private final long tickNanos;
+  private final Bucket[] buckets;
+  private final int mask;
+  private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+  private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+  private final long startNanos = System.nanoTime();
+  private final AtomicInteger size = new AtomicInteger();
+  private long tick; // wheel thread only
+
+  public TimingWheel(String threadName, long tickMs, int wheelSize) {
+    if (tickMs <= 0) throw new IllegalArgumentException("tickMs must be > 0");
+    int n = Integer.highestOneBit(Math.max(2, wheelSize) - 1) << 1;
+    this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+    this.buckets = new Bucket[n];
+    for (int i = 0; i < n; i++) buckets[i] = new Bucket();
+    this.mask = n - 1;
+    Thread worker = new Thread(this::run, threadName);
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /** The wheel used by every CommandBus (-Dcommands.timeoutTickMs / -Dcommands.timeoutWheelSize). */
+  public static TimingWheel shared() {
+    return SHARED;
+  }
+
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    long elapsed = System.nanoTime() - startNanos + unit.toNanos(delay);
+    // round up so a timeout never fires early
+    Timeout t = new Timeout(task, (elapsed + tickNanos - 1) / tickNanos);
+    size.incrementAndGet();
+    added.add(t);
+    return t;
+  }
+
+  /** Timeouts scheduled and neither fired nor cancelled yet (approximate). */
+  public int size() {
+    return size.get();
+  }
+
+  private void run() {
+    while (true) {
+      long next = startNanos + (tick + 1) * tickNanos;
+      long sleep;
+      while ((sleep = next - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(this, sleep);
+      }
+      tick++;
+      drainCancelled();
+      drainAdded();
+      expire(buckets[(int) (tick & mask)]);
+    }
+  }
+
+  private void drainAdded() {
+    Timeout t;
+    while ((t = added.poll()) != null) {
+      if (t.state.get() != PENDING) continue; // cancelled before it was placed
+      long target = Math.max(t.deadlineTick, tick); // already due: this tick's bucket
+      t.remainingRounds = (target - tick) / buckets.length;
+      buckets[(int) (target & mask)].add(t);
+    }
+  }
+
+  private void drainCancelled() {
+    Timeout t;
+    while ((t = cancelled.poll()) != null) {
+      size.decrementAndGet();
+      if (t.bucket != null) t.bucket.remove(t);
+    }
+  }
+
+  private void expire(Bucket bucket) {
+    Timeout t = bucket.head;
+    while (t != null) {
+      Timeout next = t.next;
+      if (t.remainingRounds > 0) {
+        t.remainingRounds--;
+      } else {
+        bucket.remove(t);
+        if (t.state.compareAndSet(PENDING, EXPIRED)) {
+          size.decrementAndGet();
+          try {
+            t.task.run();
+          } catch (RuntimeException ignored) {
+            // a failing task must not stop the wheel
+          }
+        }
+      }
+      t = next;
+    }
+  }
+}
@@ -0,0 +1,222 @@
+package com.social100.todero.log;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Leveled logger that never writes on the caller's thread.
+ *
+ * Callers put an event (level, template, args) into a bounded lock-free ring; one daemon
+ * thread formats and writes to stdout/stderr. When the ring is full the event is dropped
+ * and counted instead of blocking the caller. Templates use "{}" placeholders and are only
+ * formatted on the writer thread.
+ *
+ * Levels: -Dlog.level=INFO (default), per logger -Dlog.level.Bridge=DEBUG.
+ * Hot-path sites should use {@link #site} to cap how many lines per second they emit.
+ */
+public final class Log {
+
+  public enum Level { TRACE, DEBUG, INFO, WARN, ERROR, OFF }
+
+  private static final Level ROOT_LEVEL = parseLevel(System.getProperty("log.level"), Level.INFO);
+  private static final Ring RING = new Ring(Integer.getInteger("log.bufferSize", 8192));
+
+  private final String name;
+  private final String prefix;
+  private final Level level;
+
+  private Log(String name) {
+    this.name = name;
+    this.prefix = "[" + name + "] ";
+    this.level = parseLevel(System.getProperty("log.level." + name), ROOT_LEVEL);
+  }
+
+  public static Log get(String name) {
+    return new Log(name);
+  }
+
+  public String name() { return name; }
+
+  public boolean isEnabled(Level l) { return l.compareTo(level) >= 0 && l != Level.OFF; }
+  public boolean isDebugEnabled()   { return isEnabled(Level.DEBUG); }
+
+  public void trace(String fmt, Object... args) { log(Level.TRACE, null, fmt, args); }
+  public void debug(String msg)                  { log(Level.DEBUG, null, msg, (Object[]) null); }
+  public void debug(String fmt, Object a)        { if (isEnabled(Level.DEBUG)) log(Level.DEBUG, null, fmt, a); }
+  public void debug(String fmt, Object a, Object b) { if (isEnabled(Level.DEBUG)) log(Level.DEBUG, null, fmt, a, b); }
+  public void debug(String fmt, Object... args)  { log(Level.DEBUG, null, fmt, args); }
+  public void info(String msg)                   { log(Level.INFO, null, msg, (Object[]) null); }
+  public void info(String fmt, Object... args)   { log(Level.INFO, null, fmt, args); }
+  public void warn(String fmt, Object... args)   { log(Level.WARN, null, fmt, args); }
+  public void warn(String msg, Throwable t)      { log(Level.WARN, t, msg, (Object[]) null); }
+  public void error(String fmt, Object... args)  { log(Level.ERROR, null, fmt, args); }
+  public void error(String msg, Throwable t)     { log(Level.ERROR, t, msg, (Object[]) null); }
+
+  private void log(Level l, Throwable t, String fmt, Object... args) {
+    if (!isEnabled(l)) return;
+    RING.offer(new Event(System.currentTimeMillis(), l, prefix, fmt, args, t, 0));
+  }
+
+  /**
+   * A rate-limited call site: at most {@code perSecond} lines per second at {@code level};
+   * the rest are counted and reported as "(+N suppressed)" on the next line that gets through.
+   */
+  public Site site(Level level, int perSecond) {
+    return new Site(this, level, perSecond);
+  }
+
+  public static final class Site {
+    private final Log log;
+    private final Level level;
+    private final int perSecond;
+    private final AtomicLong window = new AtomicLong();
+    private final AtomicLong inWindow = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    private Site(Log log, Level level, int perSecond) {
+      this.log = log;
+      this.level = level;
+      this.perSecond = perSecond;
+    }
+
+    public boolean isEnabled() { return log.isEnabled(level); }
+
+    public void log(String fmt, Object... args) {
+      if (!log.isEnabled(level)) return;
+      long second = System.currentTimeMillis() / 1000;
+      long w = window.get();
+      if (w != second && window.compareAndSet(w, second)) {
+        inWindow.set(0);
+      }
+      if (inWindow.incrementAndGet() > perSecond) {
+        suppressed.incrementAndGet();
+        return;
+      }
+      long dropped = suppressed.getAndSet(0);
+      RING.offer(new Event(System.currentTimeMillis(), level, log.prefix, fmt, args, null, dropped));
+    }
+  }
+
+  /** Events dropped because the ring was full (the caller never blocks). */
+  public static long droppedEvents() {
+    return RING.dropped.sum();
+  }
+
+  /** Blocks until everything queued so far is written (tests, shutdown). */
+  public static void flush() {
+    RING.awaitDrained(2_000);
+  }
+
+  // ------- Internals -------
+
+  private record Event(long timeMillis, Level level, String prefix, String fmt, Object[] args,
+                       Throwable error, long suppressed) {}
+
+  static String format(String fmt, Object[] args) {
+    if (args == null || args.length == 0 || fmt == null) return fmt;
+    StringBuilder sb = new StringBuilder(fmt.length() + 32);
+    int argIdx = 0;
+    int from = 0;
+    int at;
+    while (argIdx < args.length && (at = fmt.indexOf("{}", from)) >= 0) {
+      sb.append(fmt, from, at).append(args[argIdx++]);
+      from = at + 2;
+    }
+    sb.append(fmt, from, fmt.length());
+    return sb.toString();
+  }
+
+  private static Level parseLevel(String s, Level def) {
+    if (s == null || s.isBlank()) return def;
+    try {
+      return Level.valueOf(s.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      return def;
+    }
+  }
+
+  /** Bounded multi-producer / single-consumer ring. */
+  private static final class Ring implements Runnable {
+    private final AtomicReferenceArray<Event> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // next slot to claim
+    private volatile long head;                       // next slot to read (writer thread only)
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+
+    Ring(int capacity) {
+      int cap = Integer.highestOneBit(Math.max(16, capacity) - 1) << 1;
+      this.slots = new AtomicReferenceArray<>(cap);
+      this.mask = cap - 1;
+      this.writer = new Thread(this, "AsyncLog");
+      this.writer.setDaemon(true);
+      this.writer.start();
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> awaitDrained(1_000), "AsyncLog-flush"));
+    }
+
+    void offer(Event e) {
+      long t;
+      do {
+        t = tail.get();
+        if (t - head >= slots.length()) {
+          dropped.increment();
+          return;
+        }
+      } while (!tail.compareAndSet(t, t + 1));
+      slots.set((int) t & mask, e);
+      LockSupport.unpark(writer);
+    }
+
+    @Override
+    public void run() {
+      StringBuilder line = new StringBuilder(256);
+      while (true) {
+        long h = head;
+        if (h == tail.get()) {
+          LockSupport.parkNanos(this, 50_000_000L);
+          continue;
+        }
+        int idx = (int) h & mask;
+        Event e = slots.get(idx);
+        if (e == null) {       // claimed but not yet published by the producer
+          Thread.onSpinWait();
+          continue;
+        }
+        slots.set(idx, null);
+        head = h + 1;
+        try {
+          write(e, line);
+        } catch (RuntimeException ignored) {
+          // a bad toString() must not kill the writer
+        }
+      }
+    }
+
+    private void write(Event e, StringBuilder line) {
+      line.setLength(0);
+      line.append(Instant.ofEpochMilli(e.timeMillis())).append(' ')
+          .append(e.level()).append(' ')
+          .append(e.prefix()).append(format(e.fmt(), e.args()));
+      if (e.suppressed() > 0) line.append(" (+").append(e.suppressed()).append(" suppressed)");
+      PrintStream out = e.level().compareTo(Level.WARN) >= 0 ? System.err : System.out;
+      out.println(line);
+      if (e.error() != null) e.error().printStackTrace(out);
+    }
+
+    void awaitDrained(long timeoutMs) {
+      long target = tail.get();
+      long deadline = System.currentTimeMillis() + timeoutMs;
+      LockSupport.unpark(writer);
+      while (head < target && System.currentTimeMillis() < deadline) {
+        LockSupport.parkNanos(1_000_000L);
+      }
+      System.out.flush();
+      System.err.flush();
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package com.social100.todero.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free HDR-style histogram: log-linear buckets (16 sub-buckets per power of two, so
+ * ~6% relative error) over the full non-negative long range. Recording is one atomic add.
+ */
+public class Histogram {
+
+  private static final int SUB_BITS = 4;
+  private static final int SUB = 1 << SUB_BITS;
+  private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+
+  private final String name;
+  private final String help;
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+
+  Histogram(String name, String help) {
+    this.name = name;
+    this.help = help;
+  }
+
+  public String name() { return name; }
+  public String help() { return help; }
+
+  public void record(long value) {
+    if (value < 0) value = 0;
+    counts.incrementAndGet(indexOf(value));
+    count.increment();
+    sum.add(value);
+  }
+
+  public long count() { return count.sum(); }
+  public long sum()   { return sum.sum(); }
+
+  /** Upper bound of the bucket holding the q-th quantile (0..1); 0 when empty. */
+  public long quantile(double q) {
+    long total = 0;
+    long[] snapshot = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) return 0;
+    long rank = (long) Math.ceil(q * total);
+    if (rank < 1) rank = 1;
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) return highestValueIn(i);
+    }
+    return highestValueIn(BUCKETS - 1);
+  }
+
+  static int indexOf(long v) {
+    if (v < SUB) return (int) v;
+    int exp = 63 - Long.numberOfLeadingZeros(v);        // >= SUB_BITS
+    int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB - 1);
+    return (exp - SUB_BITS + 1) * SUB + sub;
+  }
+
+  static long highestValueIn(int index) {
+    if (index < SUB) return index;
+    int exp = index / SUB + SUB_BITS - 1;
+    long sub = index % SUB;
+    long low = (1L << exp) | (sub << (exp - SUB_BITS));
+    long width = 1L << (exp - SUB_BITS);
+    return low + width - 1 < 0 ? Long.MAX_VALUE : low + width - 1;
+  }
+}
@@ -0,0 +1,51 @@
+package com.social100.todero.metrics;
+
+import com.social100.todero.log.Log;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/** Serves GET /metrics in Prometheus text format on a local port. */
+public class MetricsHttpServer implements AutoCloseable {
+  private static final Log LOG = Log.get("Metrics");
+
+  private final HttpServer server;
+
+  public MetricsHttpServer(String host, int port, MetricsRegistry registry) throws IOException {
+    server = HttpServer.create(new InetSocketAddress(host, port), 0);
+    server.createContext("/metrics", exchange -> {
+      try (exchange) {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+          exchange.sendResponseHeaders(405, -1);
+          return;
+        }
+        byte[] body = registry.toPrometheusText().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+          os.write(body);
+        }
+      }
+    });
+    server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "MetricsHttpServer");
+      t.setDaemon(true);
+      return t;
+    }));
+    server.start();
+    LOG.info("Metrics available at http://{}:{}/metrics", host, server.getAddress().getPort());
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+}
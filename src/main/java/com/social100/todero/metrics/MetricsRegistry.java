@@ -0,0 +1,98 @@
+package com.social100.todero.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide counters, gauges and histograms, rendered in Prometheus text format
+ * (histograms as summaries with fixed quantiles).
+ */
+public class MetricsRegistry {
+
+  private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+  public static MetricsRegistry global() {
+    return GLOBAL;
+  }
+
+  public static final class Counter {
+    private final String help;
+    private final LongAdder value = new LongAdder();
+
+    private Counter(String help) { this.help = help; }
+
+    public void inc()          { value.increment(); }
+    public void add(long n)    { value.add(n); }
+    public long get()          { return value.sum(); }
+  }
+
+  private record Gauge(String help, LongSupplier supplier) {}
+
+  // sorted so the exposition output is stable
+  private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+  private final Map<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+  private final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+  private final Map<String, Object> names = new ConcurrentHashMap<>();
+
+  public Counter counter(String name, String help) {
+    return counters.computeIfAbsent(name, n -> claim(n, new Counter(help)));
+  }
+
+  public Histogram histogram(String name, String help) {
+    return histograms.computeIfAbsent(name, n -> claim(n, new Histogram(n, help)));
+  }
+
+  /**
+   * Registers a gauge read at scrape time. Registering the same name again replaces the
+   * supplier; a name already used by a counter or histogram is rejected.
+   */
+  public void gauge(String name, String help, LongSupplier supplier) {
+    Gauge gauge = new Gauge(help, supplier);
+    gauges.put(name, claim(name, gauge));
+  }
+
+  private <T> T claim(String name, T metric) {
+    Object prev = names.putIfAbsent(name, metric);
+    if (prev != null && prev.getClass() != metric.getClass()) {
+      throw new IllegalArgumentException("Metric name already used by another type: " + name);
+    }
+    return metric;
+  }
+
+  public String toPrometheusText() {
+    StringBuilder sb = new StringBuilder(4096);
+    counters.forEach((name, c) -> {
+      header(sb, name, c.help, "counter");
+      sb.append(name).append(' ').append(c.get()).append('\n');
+    });
+    gauges.forEach((name, g) -> {
+      header(sb, name, g.help(), "gauge");
+      long v;
+      try {
+        v = g.supplier().getAsLong();
+      } catch (RuntimeException e) {
+        return; // a broken gauge must not break the scrape
+      }
+      sb.append(name).append(' ').append(v).append('\n');
+    });
+    histograms.forEach((name, h) -> {
+      header(sb, name, h.help(), "summary");
+      for (double q : QUANTILES) {
+        sb.append(name).append("{quantile=\"").append(q).append("\"} ").append(h.quantile(q)).append('\n');
+      }
+      sb.append(name).append("_sum ").append(h.sum()).append('\n');
+      sb.append(name).append("_count ").append(h.count()).append('\n');
+    });
+    return sb.toString();
+  }
+
+  private static void header(StringBuilder sb, String name, String help, String type) {
+    sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+}
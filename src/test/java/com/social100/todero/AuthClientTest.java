@@ -0,0 +1,87 @@
+package com.social100.todero;
+
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+import org.java_websocket.WebSocket;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AuthClientTest extends TestCase {
+
+  private final AtomicInteger requests = new AtomicInteger();
+  private volatile int status;
+  private HttpServer authServer;
+  private AuthClient client;
+  private WebSocketRelayServer listener;
+
+  @Override
+  protected void setUp() throws Exception {
+    authServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    authServer.createContext("/auth/api-tokens/validate", exchange -> {
+      requests.incrementAndGet();
+      if (status == 200) {
+        byte[] body = "{\"user_id\":\"alice\",\"device_id\":\"phone\"}".getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+      } else {
+        exchange.sendResponseHeaders(status, -1);
+      }
+      exchange.close();
+    });
+    authServer.start();
+    client = new AuthClient("http://127.0.0.1:" + authServer.getAddress().getPort());
+    listener = new WebSocketRelayServer(0);
+  }
+
+  @Override
+  protected void tearDown() {
+    authServer.stop(0);
+  }
+
+  public void testServerErrorsAreNotCached() {
+    status = 503;
+    StubWebSocket first = new StubWebSocket(listener);
+    assertFalse(client.validateAndRegisterAsync("token", first).join());
+    assertEquals(1013, first.closeCode);
+
+    status = 429;
+    assertFalse(client.validateAndRegisterAsync("token", new StubWebSocket(listener)).join());
+    assertEquals(2, requests.get());
+  }
+
+  public void testCachedValidationStillRegistersOffTheCallingThread() {
+    status = 200;
+    assertTrue(client.validateAndRegisterAsync("token", new StubWebSocket(listener)).join());
+
+    List<String> registeredOn = new CopyOnWriteArrayList<>();
+    client.webSocketRegistry.addListener(new WebSocketRegistry.Listener() {
+      @Override
+      public void onAdded(String clientId, WebSocket conn) {
+        registeredOn.add(Thread.currentThread().getName());
+      }
+
+      @Override
+      public void onRemoved(String clientId, WebSocket conn) {
+      }
+    });
+    // cache hit: validateToken completes immediately, on this thread
+    assertTrue(client.validateAndRegisterAsync("token", new StubWebSocket(listener)).join());
+    assertEquals(1, requests.get());
+    assertEquals(1, registeredOn.size());
+    assertFalse(registeredOn.get(0).equals(Thread.currentThread().getName()));
+  }
+
+  public void testRejectionIsCached() {
+    status = 401;
+    StubWebSocket first = new StubWebSocket(listener);
+    assertFalse(client.validateAndRegisterAsync("token", first).join());
+    assertEquals(1008, first.closeCode);
+
+    assertFalse(client.validateAndRegisterAsync("token", new StubWebSocket(listener)).join());
+    assertEquals(1, requests.get());
+  }
+}
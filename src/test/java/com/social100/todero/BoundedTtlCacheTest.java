@@ -0,0 +1,42 @@
+package com.social100.todero;
+
+import junit.framework.TestCase;
+
+public class BoundedTtlCacheTest extends TestCase {
+
+  public void testHitAndMissCounters() {
+    BoundedTtlCache<String, String> cache = new BoundedTtlCache<>(4);
+    assertNull(cache.get("a"));
+    cache.put("a", "1", 60_000);
+    assertEquals("1", cache.get("a"));
+    assertEquals(1, cache.hits());
+    assertEquals(1, cache.misses());
+  }
+
+  public void testExpiredEntriesAreMisses() throws Exception {
+    BoundedTtlCache<String, String> cache = new BoundedTtlCache<>(4);
+    cache.put("a", "1", 1);
+    Thread.sleep(5);
+    assertNull(cache.get("a"));
+    assertEquals(0, cache.size());
+  }
+
+  public void testSizeLimitEvictsLeastRecentlyUsed() {
+    BoundedTtlCache<String, String> cache = new BoundedTtlCache<>(2);
+    cache.put("a", "1", 60_000);
+    cache.put("b", "2", 60_000);
+    cache.get("a");               // b is now the eldest
+    cache.put("c", "3", 60_000);
+    assertEquals(2, cache.size());
+    assertNull(cache.get("b"));
+    assertEquals("1", cache.get("a"));
+    assertEquals(1, cache.evictions());
+  }
+
+  public void testInvalidate() {
+    BoundedTtlCache<String, String> cache = new BoundedTtlCache<>(2);
+    cache.put("a", "1", 60_000);
+    cache.invalidate("a");
+    assertNull(cache.get("a"));
+  }
+}
@@ -0,0 +1,138 @@
+package com.social100.todero;
+
+import com.social100.todero.cmd.CommandFramework;
+import junit.framework.TestCase;
+
+import java.util.List;
+
+public class ClientSessionTest extends TestCase {
+
+  private WebSocketRelayServer server;
+
+  @Override
+  protected void setUp() {
+    server = new WebSocketRelayServer(0);
+    server.webSocketServerCommands.registry.register("ECHO", req -> new CommandFramework.CommandMessage(
+        req.getId(), "ECHO", req.getParams(), CommandFramework.CommandMessage.Kind.RESPONSE));
+  }
+
+  public void testFramesBeforeAuthAreReplayedInOrder() {
+    StubWebSocket conn = new StubWebSocket(server);
+    ClientSession session = server.openSession(conn);
+
+    server.onMessage(conn, "REQUEST:1:ECHO:a");
+    server.onMessage(conn, "REQUEST:2:ECHO:b");
+    assertTrue(conn.sent.isEmpty());
+
+    assertTrue(session.activate(() -> true));
+    server.onMessage(conn, "REQUEST:3:ECHO:c");
+
+    assertEquals(List.of("RESPONSE:1:ECHO:a", "RESPONSE:2:ECHO:b", "RESPONSE:3:ECHO:c"), conn.sent);
+    assertEquals(ClientSession.State.ACTIVE, session.getState());
+  }
+
+  public void testCloseBeforeAuthSkipsRegistration() {
+    StubWebSocket conn = new StubWebSocket(server);
+    ClientSession session = server.openSession(conn);
+    server.onMessage(conn, "REQUEST:1:ECHO:a");
+
+    session.markClosed();
+    boolean[] registered = {false};
+    assertFalse(session.activate(() -> registered[0] = true));
+    assertFalse(registered[0]);
+    assertTrue(conn.sent.isEmpty());
+  }
+
+  public void testTooManyFramesBeforeAuthClosesConnection() {
+    StubWebSocket conn = new StubWebSocket(server);
+    ClientSession session = server.openSession(conn);
+    for (int i = 0; i <= ClientSession.MAX_PENDING_FRAMES; i++) {
+      server.onMessage(conn, "REQUEST:" + i + ":ECHO");
+    }
+    assertEquals(1008, conn.closeCode);
+    assertEquals(ClientSession.State.CLOSED, session.getState());
+  }
+
+  public void testLiveMessagesWaitForMailboxReplay() {
+    StubWebSocket conn = new StubWebSocket(server);
+    ClientSession session = server.openSession(conn);
+    assertTrue(session.activate(() -> true));
+
+    assertTrue(session.tryBeginReplay());
+    assertFalse("one replay at a time", session.tryBeginReplay());
+    session.sendMessage("FROM", "a", "TO", "u:d", "MESSAGE", "live");
+    assertTrue(conn.sent.isEmpty());
+
+    // what the mailbox replay writes straight to the bus
+    session.getBus().sendKeyValues("SEND_MESSAGE", "FROM", "a", "TO", "u:d", "MESSAGE", "parked");
+    assertFalse("the refused replay gets one more pass", session.finishReplay());
+    assertTrue(session.finishReplay());
+    session.sendMessage("FROM", "a", "TO", "u:d", "MESSAGE", "after");
+
+    assertEquals(3, conn.sent.size());
+    assertTrue(conn.sent.get(0).endsWith("MESSAGE\\:parked"));
+    assertTrue(conn.sent.get(1).endsWith("MESSAGE\\:live"));
+    assertTrue(conn.sent.get(2).endsWith("MESSAGE\\:after"));
+  }
+
+  public void testTopicFanOutWaitsForMailboxReplay() {
+    StubWebSocket conn = new StubWebSocket(server);
+    ClientSession session = server.openSession(conn);
+    assertTrue(session.activate(() -> true));
+    server.topics.subscribe("room1", conn);
+
+    assertTrue(session.tryBeginReplay());
+    assertEquals(1, server.sendMessageToTopic("svc:1", "room1", "live"));
+    assertTrue(conn.sent.isEmpty());
+
+    session.getBus().sendKeyValues("SEND_MESSAGE", "FROM", "a", "TO", "u:d", "MESSAGE", "parked");
+    session.finishReplay();
+
+    assertEquals(2, conn.sent.size());
+    assertTrue(conn.sent.get(0).endsWith("MESSAGE\\:parked"));
+    assertTrue(conn.sent.get(1).contains("MESSAGE\\:live"));
+  }
+
+  public void testFullReplayBacklogRejectsNewMessagesInsteadOfDroppingOld() {
+    StubWebSocket conn = new StubWebSocket(server);
+    ClientSession session = server.openSession(conn);
+    assertTrue(session.activate(() -> true));
+    assertTrue(session.tryBeginReplay());
+    for (int i = 0; i < ClientSession.MAX_DEFERRED_MESSAGES; i++) {
+      session.sendMessage("FROM", "a", "TO", "u:d", "MESSAGE", "m" + i);
+    }
+    try {
+      session.sendMessage("FROM", "a", "TO", "u:d", "MESSAGE", "overflow");
+      fail("expected ReplayBacklogFullException");
+    } catch (ClientSession.ReplayBacklogFullException expected) {
+    }
+
+    assertTrue(session.finishReplay());
+    assertEquals(ClientSession.MAX_DEFERRED_MESSAGES, conn.sent.size());
+    assertTrue(conn.sent.get(0).endsWith("MESSAGE\\:m0"));
+  }
+
+  public void testReplayAskedForDuringAReplayGetsAnotherPass() {
+    StubWebSocket conn = new StubWebSocket(server);
+    ClientSession session = server.openSession(conn);
+    assertTrue(session.activate(() -> true));
+    assertTrue(session.tryBeginReplay());
+    session.sendMessage("FROM", "a", "TO", "u:d", "MESSAGE", "live");
+    assertFalse(session.tryBeginReplay());
+
+    assertFalse("read the mailbox once more", session.finishReplay());
+    assertEquals("deferred messages still go out first", 1, conn.sent.size());
+    session.sendMessage("FROM", "a", "TO", "u:d", "MESSAGE", "later");
+    assertEquals(1, conn.sent.size());
+
+    assertTrue(session.finishReplay());
+    assertEquals(2, conn.sent.size());
+  }
+
+  public void testMailboxEncodingRoundTrips() {
+    String[] m = OfflineMailbox.decode(OfflineMailbox.encode("user:dev:1", "payload: with 12: colons"));
+    assertEquals("user:dev:1", m[0]);
+    assertEquals("payload: with 12: colons", m[1]);
+    assertNull(OfflineMailbox.decode(OfflineMailbox.encode(null, "x"))[0]);
+  }
+}
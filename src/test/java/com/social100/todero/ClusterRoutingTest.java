@@ -0,0 +1,124 @@
+package com.social100.todero;
+
+import junit.framework.TestCase;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.resps.StreamEntry;
+
+import java.util.List;
+import java.util.Map;
+
+public class ClusterRoutingTest extends TestCase {
+
+  private final FakeRedis redis = new FakeRedis();
+  private ClusterRouting routing;
+
+  @Override
+  protected void setUp() {
+    routing = new ClusterRouting("msgs", "node-a", redis);
+  }
+
+  @Override
+  protected void tearDown() {
+    routing.close();
+  }
+
+  public void testRegistrationClaimsRouteAndUserEntry() throws Exception {
+    routing.onAdded("alice:phone", null);
+    routing.awaitUpdates();
+
+    assertEquals("node-a", routing.ownerOf("alice:phone"));
+    assertEquals("node-a", redis.hash("msgs:user:alice").get("alice:phone"));
+    assertEquals(java.util.Set.of("node-a"), routing.nodesForUser("alice"));
+  }
+
+  public void testReleaseDropsRoutesThatStillPointHere() throws Exception {
+    routing.onAdded("alice:phone", null);
+    routing.onRemoved("alice:phone", null);
+    routing.awaitUpdates();
+
+    assertNull(routing.ownerOf("alice:phone"));
+    assertTrue(routing.nodesForUser("alice").isEmpty());
+  }
+
+  public void testReleaseKeepsRoutesClaimedByAnotherNode() throws Exception {
+    routing.onAdded("alice:phone", null);
+    routing.awaitUpdates();
+    // the client reconnected to node-b before our disconnect was processed
+    redis.hash("msgs:routes").put("alice:phone", "node-b");
+    redis.hash("msgs:user:alice").put("alice:phone", "node-b");
+
+    routing.onRemoved("alice:phone", null);
+    routing.awaitUpdates();
+    assertEquals("node-b", routing.ownerOf("alice:phone"));
+    assertEquals(java.util.Set.of("node-b"), routing.nodesForUser("alice"));
+  }
+
+  public void testResetOwnRoutesOnlyTouchesThisNode() throws Exception {
+    redis.hash("msgs:routes").put("alice:phone", "node-a");
+    redis.hash("msgs:routes").put("bob:phone", "node-b");
+    routing.resetOwnRoutes();
+    routing.awaitUpdates();
+
+    assertNull(routing.ownerOf("alice:phone"));
+    assertEquals("node-b", routing.ownerOf("bob:phone"));
+  }
+
+  public void testRerouteForwardsToTheOwningNode() {
+    redis.hash("msgs:routes").put("bob:phone", "node-b");
+    RedisToWebSocketBridge bridge = newBridge();
+
+    assertTrue(bridge.rerouteToOwner(entry(Map.of("client_id", "bob:phone", "data", "hi")), "bob:phone"));
+    List<Map<String, String>> forwarded = redis.streams.get("msgs:node:node-b");
+    assertEquals(1, forwarded.size());
+    assertEquals("hi", forwarded.get(0).get("data"));
+    assertEquals("1", forwarded.get(0).get("hops"));
+  }
+
+  public void testRerouteStopsAtUnknownOrLocalOwnersAndAfterMaxHops() {
+    RedisToWebSocketBridge bridge = newBridge();
+    assertFalse(bridge.rerouteToOwner(entry(Map.of("client_id", "carol:phone", "data", "hi")), "carol:phone"));
+
+    redis.hash("msgs:routes").put("alice:phone", "node-a");
+    assertFalse(bridge.rerouteToOwner(entry(Map.of("client_id", "alice:phone", "data", "hi")), "alice:phone"));
+
+    redis.hash("msgs:routes").put("bob:phone", "node-b");
+    assertFalse(bridge.rerouteToOwner(entry(Map.of("client_id", "bob:phone", "data", "hi", "hops", "2")), "bob:phone"));
+    assertNull(redis.streams.get("msgs:node:node-b"));
+  }
+
+  public void testTopicMembershipFollowsTheLastLocalChange() throws Exception {
+    TopicIndex topics = new TopicIndex();
+    topics.addListener(routing);
+    WebSocketRelayServer server = new WebSocketRelayServer(0);
+    Thread[] churn = new Thread[4];
+    for (int i = 0; i < churn.length; i++) {
+      StubWebSocket conn = new StubWebSocket(server);
+      churn[i] = new Thread(() -> {
+        for (int n = 0; n < 500; n++) {
+          topics.subscribe("room", conn);
+          topics.unsubscribe("room", conn);
+        }
+      });
+      churn[i].start();
+    }
+    for (Thread t : churn) t.join();
+    routing.awaitUpdates();
+    assertTrue(routing.nodesForTopic("room").isEmpty());
+
+    StubWebSocket last = new StubWebSocket(server);
+    topics.subscribe("room", last);
+    routing.awaitUpdates();
+    assertEquals(java.util.Set.of("node-a"), routing.nodesForTopic("room"));
+  }
+
+  private RedisToWebSocketBridge newBridge() {
+    RedisToWebSocketBridge bridge = new RedisToWebSocketBridge(
+        "localhost", 6379, "msgs", "group", "node-a", new WebSocketRelayServer(0, routing));
+    bridge.jedisPool = redis;
+    return bridge;
+  }
+
+  private static StreamEntry entry(Map<String, String> fields) {
+    return new StreamEntry(new StreamEntryID(1, 0), fields);
+  }
+}
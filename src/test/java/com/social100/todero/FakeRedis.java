@@ -0,0 +1,164 @@
+package com.social100.todero;
+
+import redis.clients.jedis.BuilderFactory;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.params.XAddParams;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory stand-in for the few Redis commands the routing and publishing code uses: hashes,
+ * sets, XADD and XACK, direct or pipelined. Nothing connects; every resource shares the same data.
+ * EVAL understands one script shape, ClusterRouting's release ("HDEL ARGV[1] from each KEY
+ * where it still equals ARGV[2]"). XADD to a key in {@link #wrongType} fails like WRONGTYPE.
+ */
+public class FakeRedis extends JedisPool {
+
+  final Map<String, Map<String, String>> hashes = new ConcurrentHashMap<>();
+  final Map<String, Set<String>> sets = new ConcurrentHashMap<>();
+  final Map<String, List<Map<String, String>>> streams = new ConcurrentHashMap<>();
+  final Map<String, List<StreamEntryID>> acks = new ConcurrentHashMap<>();
+  final Set<String> wrongType = ConcurrentHashMap.newKeySet();
+  final AtomicInteger pipelineSyncs = new AtomicInteger();
+  volatile Runnable onGetResource; // e.g. block, or throw to simulate Redis being down
+  private final AtomicLong ids = new AtomicLong();
+
+  @Override
+  public Jedis getResource() {
+    Runnable hook = onGetResource;
+    if (hook != null) hook.run();
+    return new FakeJedis();
+  }
+
+  Map<String, String> hash(String key) {
+    return hashes.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+  }
+
+  private long hsetNow(String key, String field, String value) {
+    return hash(key).put(field, value) == null ? 1 : 0;
+  }
+
+  private StreamEntryID xaddNow(String key, Map<String, String> fields) {
+    if (wrongType.contains(key)) {
+      throw new JedisDataException("WRONGTYPE Operation against a key holding the wrong kind of value");
+    }
+    streams.computeIfAbsent(key, k -> new ArrayList<>()).add(Map.copyOf(fields));
+    return new StreamEntryID(ids.incrementAndGet(), 0);
+  }
+
+  private class FakeJedis extends Jedis {
+    @Override public long hset(String key, String field, String value) { return hsetNow(key, field, value); }
+    @Override public String hget(String key, String field) { return hash(key).get(field); }
+    @Override public List<String> hvals(String key) { return new ArrayList<>(hash(key).values()); }
+    @Override public Map<String, String> hgetAll(String key) { return Map.copyOf(hash(key)); }
+
+    @Override
+    public long hdel(String key, String... fields) {
+      long n = 0;
+      for (String f : fields) if (hash(key).remove(f) != null) n++;
+      return n;
+    }
+
+    @Override
+    public long sadd(String key, String... members) {
+      Set<String> set = sets.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet());
+      long n = 0;
+      for (String m : members) if (set.add(m)) n++;
+      return n;
+    }
+
+    @Override
+    public long srem(String key, String... members) {
+      Set<String> set = sets.getOrDefault(key, Set.of());
+      long n = 0;
+      for (String m : members) if (set.remove(m)) n++;
+      return n;
+    }
+
+    @Override
+    public Set<String> smembers(String key) {
+      return new HashSet<>(sets.getOrDefault(key, Set.of()));
+    }
+
+    @Override
+    public Object eval(String script, List<String> keys, List<String> args) {
+      long n = 0;
+      for (String key : keys) {
+        if (args.get(1).equals(hash(key).get(args.get(0)))) n += hdel(key, args.get(0));
+      }
+      return n;
+    }
+
+    @Override
+    public StreamEntryID xadd(String key, XAddParams params, Map<String, String> fields) {
+      return xaddNow(key, fields);
+    }
+
+    @Override
+    public Pipeline pipelined() {
+      return new FakePipeline();
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  // applies commands right away; callers here never read the responses
+  private class FakePipeline extends Pipeline {
+    FakePipeline() {
+      super(new Connection());
+    }
+
+    @Override
+    public Response<Long> hset(String key, String field, String value) {
+      hsetNow(key, field, value);
+      return null;
+    }
+
+    @Override
+    public Response<StreamEntryID> xadd(String key, XAddParams params, Map<String, String> fields) {
+      Response<StreamEntryID> r = new Response<>(BuilderFactory.STREAM_ENTRY_ID);
+      try {
+        r.set(xaddNow(key, fields).toString().getBytes(StandardCharsets.UTF_8));
+      } catch (JedisDataException e) {
+        r.set(e);
+      }
+      return r;
+    }
+
+    @Override
+    public Response<Long> xack(String key, String group, StreamEntryID... ids) {
+      acks.computeIfAbsent(key, k -> new ArrayList<>()).addAll(List.of(ids));
+      return null;
+    }
+
+    @Override
+    public Response<String> hget(String key, String field) {
+      Response<String> r = new Response<>(BuilderFactory.STRING);
+      String value = hash(key).get(field);
+      r.set(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+      return r;
+    }
+
+    @Override
+    public void sync() {
+      pipelineSyncs.incrementAndGet();
+    }
+  }
+}
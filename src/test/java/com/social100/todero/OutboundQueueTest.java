@@ -0,0 +1,72 @@
+package com.social100.todero;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+public class OutboundQueueTest extends TestCase {
+
+  private WebSocketRelayServer server;
+
+  @Override
+  protected void setUp() {
+    server = new WebSocketRelayServer(0);
+  }
+
+  /** A socket whose write buffer never drains. */
+  private static final class StalledWebSocket extends StubWebSocket {
+    StalledWebSocket(WebSocketRelayServer server) {
+      super(server);
+      outQueue.add(ByteBuffer.allocate(1024));
+    }
+  }
+
+  public void testWritesGoStraightThroughWhileSocketKeepsUp() {
+    StubWebSocket conn = new StubWebSocket(server);
+    OutboundQueue q = new OutboundQueue(conn, OutboundQueue.Policy.DROP_OLDEST, 4, 1 << 20, 512, () -> {});
+    for (int i = 0; i < 10; i++) q.send("m" + i);
+    assertEquals(10, conn.sent.size());
+    assertEquals(0, q.size());
+    assertEquals(0, q.getDropped());
+  }
+
+  public void testDropOldestKeepsNewestFrames() {
+    StubWebSocket conn = new StalledWebSocket(server);
+    OutboundQueue q = new OutboundQueue(conn, OutboundQueue.Policy.DROP_OLDEST, 3, 1 << 20, 512, () -> {});
+    for (int i = 0; i < 5; i++) q.send("m" + i);
+    assertEquals(0, conn.sent.size());
+    assertEquals(3, q.size());
+    assertEquals(2, q.getDropped());
+
+    conn.outQueue.clear();
+    q.send("m5"); // socket writable again: the backlog goes out in one batch, in order
+    assertEquals(List.of("m3", "m4", "m5"), List.copyOf(conn.sent));
+  }
+
+  public void testDropNewestKeepsQueuedFrames() throws Exception {
+    StubWebSocket conn = new StalledWebSocket(server);
+    OutboundQueue q = new OutboundQueue(conn, OutboundQueue.Policy.DROP_NEWEST, 1 << 10, 8, 512, () -> {});
+    q.send("aaaa");
+    q.send("bbbb");
+    q.send("cccc"); // over the byte bound
+    assertEquals(2, q.size());
+    assertEquals(1, q.getDropped());
+
+    conn.outQueue.clear(); // no new send: the retry timer notices the socket drained
+    long deadline = System.currentTimeMillis() + 2_000;
+    while (conn.sent.size() < 2 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+    assertEquals(List.of("aaaa", "bbbb"), List.copyOf(conn.sent));
+  }
+
+  public void testClosePolicyClosesWithConfiguredCode() {
+    StubWebSocket conn = new StalledWebSocket(server);
+    OutboundQueue q = new OutboundQueue(conn, OutboundQueue.Policy.CLOSE, 2, 1 << 20, 512, () -> {});
+    q.send("a");
+    q.send("b");
+    q.send("c");
+    assertEquals(OutboundQueue.CLOSE_CODE, conn.closeCode);
+    assertEquals(3, q.getDropped());
+    assertEquals(0, q.size());
+  }
+}
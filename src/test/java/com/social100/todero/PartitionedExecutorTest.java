@@ -0,0 +1,69 @@
+package com.social100.todero;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class PartitionedExecutorTest extends TestCase {
+
+  private final PartitionedExecutor executor = new PartitionedExecutor("test", 4);
+
+  @Override
+  protected void tearDown() {
+    executor.shutdown(1000);
+  }
+
+  public void testSameKeyRunsInSubmissionOrder() throws Exception {
+    List<Integer> seen = new CopyOnWriteArrayList<>();
+    CountDownLatch done = new CountDownLatch(1);
+    for (int i = 0; i < 1000; i++) {
+      int n = i;
+      executor.execute("user1:dev", () -> seen.add(n));
+    }
+    executor.execute("user1:dev", done::countDown);
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 1000; i++) assertEquals(Integer.valueOf(i), seen.get(i));
+  }
+
+  public void testDifferentLanesRunInParallel() throws Exception {
+    String a = "user1:dev";
+    String b = keyOnAnotherLane(a);
+    // each task waits for the other: only possible if the two lanes run at the same time
+    CountDownLatch both = new CountDownLatch(2);
+    AtomicBoolean met = new AtomicBoolean(true);
+    CountDownLatch done = new CountDownLatch(2);
+    Runnable meet = () -> {
+      both.countDown();
+      try {
+        if (!both.await(5, TimeUnit.SECONDS)) met.set(false);
+      } catch (InterruptedException e) {
+        met.set(false);
+      }
+      done.countDown();
+    };
+    executor.execute(a, meet);
+    executor.execute(b, meet);
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertTrue(met.get());
+  }
+
+  public void testKeysMapToAStableLane() {
+    assertEquals(executor.partitionOf("user1:dev"), executor.partitionOf("user1:dev"));
+    assertEquals(0, executor.partitionOf(null));
+    for (int i = 0; i < 100; i++) {
+      int p = executor.partitionOf("user" + i);
+      assertTrue(p >= 0 && p < executor.partitions());
+    }
+  }
+
+  private String keyOnAnotherLane(String key) {
+    for (int i = 0; ; i++) {
+      String other = "user" + i + ":dev";
+      if (executor.partitionOf(other) != executor.partitionOf(key)) return other;
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package com.social100.todero;
+
+import junit.framework.TestCase;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class RedisPublisherTest extends TestCase {
+
+  private final FakeRedis redis = new FakeRedis();
+  private RedisPublisher publisher;
+
+  @Override
+  protected void setUp() {
+    publisher = new RedisPublisher("msgs", null, redis);
+  }
+
+  @Override
+  protected void tearDown() {
+    publisher.close();
+  }
+
+  public void testPublishesQueuedWhileFlushingShareOnePipeline() throws Exception {
+    CountDownLatch flushing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    redis.onGetResource = () -> {
+      flushing.countDown();
+      await(release);
+    };
+    CompletableFuture<String> first = publisher.publishAsync("a:1", "b:1", "first");
+    assertTrue(flushing.await(5, TimeUnit.SECONDS)); // the flusher holds "first" and is stuck
+
+    List<CompletableFuture<String>> rest = new ArrayList<>();
+    for (int i = 0; i < 20; i++) rest.add(publisher.publishAsync("a:1", "b:1", "m" + i));
+    redis.onGetResource = null;
+    release.countDown();
+
+    first.get(5, TimeUnit.SECONDS);
+    for (CompletableFuture<String> f : rest) assertNotNull(f.get(5, TimeUnit.SECONDS));
+    assertEquals(2, redis.pipelineSyncs.get());
+    assertEquals(21, redis.streams.get("msgs").size());
+    assertEquals("m19", redis.streams.get("msgs").get(20).get("data"));
+  }
+
+  public void testPerEntryErrorFailsOnlyThatEntry() throws Exception {
+    ClusterRouting routing = new ClusterRouting("msgs", "node-a", redis);
+    publisher.close();
+    publisher = new RedisPublisher("msgs", routing, redis);
+    redis.hash("msgs:routes").put("bob:phone", "node-b");
+    redis.wrongType.add("msgs:node:node-b");
+
+    CompletableFuture<String> broken = publisher.publishAsync("a:1", "bob:phone", "x");
+    CompletableFuture<String> fine = publisher.publishAsync("a:1", "carol:phone", "y");
+    assertNotNull(fine.get(5, TimeUnit.SECONDS));
+    try {
+      broken.join();
+      fail("expected WRONGTYPE");
+    } catch (CompletionException e) {
+      assertTrue(e.getCause() instanceof JedisDataException);
+    }
+    assertEquals("y", redis.streams.get("msgs").get(0).get("data"));
+    routing.close();
+  }
+
+  public void testRedisDownFailsTheBatchAndLaterPublishesRecover() throws Exception {
+    redis.onGetResource = () -> {
+      throw new JedisConnectionException("connection refused");
+    };
+    try {
+      publisher.publishAsync("a:1", "b:1", "lost").join();
+      fail("expected the batch to fail");
+    } catch (CompletionException e) {
+      assertTrue(e.getCause() instanceof JedisConnectionException);
+    }
+
+    redis.onGetResource = null;
+    assertNotNull(publisher.publishAsync("a:1", "b:1", "ok").get(5, TimeUnit.SECONDS));
+  }
+
+  public void testPublishAfterCloseFailsFast() {
+    publisher.close();
+    CompletableFuture<String> f = publisher.publishAsync("a:1", "b:1", "late");
+    assertTrue(f.isCompletedExceptionally());
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -3,9 +3,22 @@ package com.social100.todero;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.resps.StreamEntry;
+import redis.clients.jedis.resps.StreamGroupInfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
 
 /**
- * Unit test for simple App.
+ * Bridge tests that need no Redis server: ACK batching, lane keys, startFrom parsing and catch-up lag.
  */
 public class RedisToWebSocketBridgeTest
     extends TestCase
@@ -28,11 +41,178 @@ public class RedisToWebSocketBridgeTest
         return new TestSuite( RedisToWebSocketBridgeTest.class );
     }
 
-    /**
-     * Rigourous Test :-)
-     */
-    public void testApp()
+    public void testDeliveredEntriesAreAckedOncePerStream()
+    {
+        RedisToWebSocketBridge bridge = newBridge();
+        bridge.queueAck( "shared", new StreamEntryID( 1, 0 ) );
+        bridge.queueAck( "node-a", new StreamEntryID( 2, 0 ) );
+        bridge.queueAck( "shared", new StreamEntryID( 3, 0 ) );
+
+        RecordingJedis jedis = new RecordingJedis();
+        bridge.ackDelivered( jedis );
+        assertEquals( 2, jedis.acks.size() );
+        assertEquals( List.of( new StreamEntryID( 1, 0 ), new StreamEntryID( 3, 0 ) ), jedis.acks.get( "shared" ) );
+        assertEquals( List.of( new StreamEntryID( 2, 0 ) ), jedis.acks.get( "node-a" ) );
+
+        jedis.acks.clear();
+        bridge.ackDelivered( jedis );
+        assertTrue( "nothing left to ACK", jedis.acks.isEmpty() );
+    }
+
+    public void testFailedAckIsRetriedOnTheNextCall()
+    {
+        RedisToWebSocketBridge bridge = newBridge();
+        bridge.queueAck( "shared", new StreamEntryID( 1, 0 ) );
+
+        RecordingJedis jedis = new RecordingJedis();
+        jedis.fail = true;
+        try
+        {
+            bridge.ackDelivered( jedis );
+            fail( "expected the XACK failure to propagate" );
+        }
+        catch ( JedisConnectionException expected )
+        {
+        }
+
+        jedis.fail = false;
+        bridge.ackDelivered( jedis );
+        assertEquals( List.of( new StreamEntryID( 1, 0 ) ), jedis.acks.get( "shared" ) );
+    }
+
+    public void testTopicEntriesArePartitionedByTopic()
+    {
+        assertEquals( "alice:phone", RedisToWebSocketBridge.laneKey( entry( Map.of( "client_id", "alice:phone", "data", "hi" ) ) ) );
+        assertEquals( "room1", RedisToWebSocketBridge.laneKey( entry( Map.of( "topic", "room1", "data", "hi" ) ) ) );
+    }
+
+    public void testEntryWithoutRecipientIsDeadLetteredRightAway()
+    {
+        FakeRedis redis = new FakeRedis();
+        RedisToWebSocketBridge bridge = newBridge();
+        bridge.jedisPool = redis;
+        bridge.workers = new PartitionedExecutor( "test", 2 );
+        bridge.inFlight = new Semaphore( 0 );
+
+        bridge.dispatch( "shared", entry( Map.of( "from", "svc:1", "data", "hi" ) ) );
+        bridge.workers.shutdown( 1000 );
+
+        List<Map<String, String>> dead = redis.streams.get( "shared:dead" );
+        assertEquals( 1, dead.size() );
+        assertEquals( "hi", dead.get( 0 ).get( "data" ) );
+        assertTrue( dead.get( 0 ).get( "reason" ).startsWith( "malformed" ) );
+        assertEquals( List.of( new StreamEntryID( 1, 0 ) ), redis.acks.get( "shared" ) );
+        assertEquals( "permit released", 1, bridge.inFlight.availablePermits() );
+    }
+
+    public void testStartFromKeywords()
+    {
+        assertEquals( StreamEntryID.XGROUP_LAST_ENTRY, RedisToWebSocketBridge.startIdFor( "last" ) );
+        assertEquals( new StreamEntryID(), RedisToWebSocketBridge.startIdFor( "first" ) );
+    }
+
+    public void testStartFromEntryId()
+    {
+        assertEquals( new StreamEntryID( 1700000000000L, 3 ), RedisToWebSocketBridge.startIdFor( "1700000000000-3" ) );
+        assertEquals( new StreamEntryID( 1700000000000L, 0 ), RedisToWebSocketBridge.startIdFor( "1700000000000" ) );
+    }
+
+    public void testStartFromInstantIncludesEntriesAtThatMillisecond()
     {
-        assertTrue( true );
+        StreamEntryID id = RedisToWebSocketBridge.startIdFor( "2023-11-14T22:13:20Z" );
+        assertTrue( id.compareTo( new StreamEntryID( 1700000000000L, 0 ) ) < 0 );
+        assertTrue( id.compareTo( new StreamEntryID( 1699999999999L, 999 ) ) > 0 );
+    }
+
+    public void testStartFromRejectsGarbage()
+    {
+        try
+        {
+            RedisToWebSocketBridge.startIdFor( "yesterday" );
+            fail( "expected IllegalArgumentException" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+        }
+    }
+
+    public void testCatchUpLagIsSummedOverTheGroupOnEveryStream()
+    {
+        RedisToWebSocketBridge bridge = newBridge();
+        RecordingJedis jedis = new RecordingJedis();
+        jedis.groups.put( "shared", List.of( group( "group", 5L ), group( "other", 100L ) ) );
+        jedis.groups.put( "node-a", List.of( group( "group", 7L ) ) );
+
+        RedisToWebSocketBridge.CatchUp catchUp = bridge.new CatchUp( jedis, List.of( "shared", "node-a" ) );
+        assertEquals( 12, bridge.catchUpLag );
+
+        jedis.groups.put( "node-a", List.of( group( "group", 0L ) ) );
+        assertEquals( 5, catchUp.lag( jedis ) );
+
+        catchUp.finish();
+        assertEquals( "live again", 0, bridge.catchUpLag );
+    }
+
+    public void testCatchUpLagIsUnknownWithoutALagField()
+    {
+        RedisToWebSocketBridge bridge = newBridge();
+        RecordingJedis jedis = new RecordingJedis();
+        // Redis < 7 reports no lag, and a missing group reports nothing at all
+        jedis.groups.put( "shared", List.of( group( "group", null ) ) );
+        jedis.groups.put( "node-a", List.of() );
+
+        assertEquals( -1, bridge.new CatchUp( jedis, List.of( "shared" ) ).lag( jedis ) );
+        assertEquals( -1, bridge.new CatchUp( jedis, List.of( "node-a" ) ).lag( jedis ) );
+        assertEquals( -1, bridge.catchUpLag );
+    }
+
+    private static RedisToWebSocketBridge newBridge()
+    {
+        return new RedisToWebSocketBridge( "localhost", 6379, "shared", "group", "consumer",
+                new WebSocketRelayServer( 0 ) );
+    }
+
+    private static StreamEntry entry( Map<String, String> fields )
+    {
+        return new StreamEntry( new StreamEntryID( 1, 0 ), fields );
+    }
+
+    private static StreamGroupInfo group( String name, Long lag )
+    {
+        Map<String, Object> info = new HashMap<>();
+        info.put( StreamGroupInfo.NAME, name );
+        info.put( StreamGroupInfo.CONSUMERS, 1L );
+        info.put( StreamGroupInfo.PENDING, 0L );
+        info.put( StreamGroupInfo.LAST_DELIVERED, new StreamEntryID( 1, 0 ) );
+        if ( lag != null )
+        {
+            info.put( "lag", lag );
+        }
+        return new StreamGroupInfo( info );
+    }
+
+    // records XACKs and answers XINFO GROUPS instead of talking to Redis (a Jedis only connects when first used)
+    private static class RecordingJedis extends Jedis
+    {
+        final Map<String, List<StreamEntryID>> acks = new LinkedHashMap<>();
+        final Map<String, List<StreamGroupInfo>> groups = new HashMap<>();
+        boolean fail;
+
+        @Override
+        public List<StreamGroupInfo> xinfoGroups( String key )
+        {
+            return groups.getOrDefault( key, List.of() );
+        }
+
+        @Override
+        public long xack( String key, String group, StreamEntryID... ids )
+        {
+            if ( fail )
+            {
+                throw new JedisConnectionException( "connection reset" );
+            }
+            acks.computeIfAbsent( key, k -> new ArrayList<>() ).addAll( Arrays.asList( ids ) );
+            return ids.length;
+        }
     }
 }
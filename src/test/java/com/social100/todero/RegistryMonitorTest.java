@@ -0,0 +1,56 @@
+package com.social100.todero;
+
+import junit.framework.TestCase;
+
+public class RegistryMonitorTest extends TestCase {
+
+  private final WebSocketRelayServer server = new WebSocketRelayServer(0);
+  private final WebSocketRegistry registry = new WebSocketRegistry();
+  private RegistryMonitor monitor;
+
+  @Override
+  protected void setUp() {
+    monitor = new RegistryMonitor(registry, 600, 50);
+  }
+
+  @Override
+  protected void tearDown() {
+    monitor.shutdown();
+  }
+
+  public void testCountersFollowRegistryEventsAndBurstsCoalesce() throws Exception {
+    StubWebSocket[] conns = new StubWebSocket[200];
+    for (int i = 0; i < conns.length; i++) {
+      conns[i] = new StubWebSocket(server);
+      registry.addByClientId("user" + i + ":dev", conns[i]);
+    }
+    for (int i = 0; i < 50; i++) {
+      registry.removeByConnection(conns[i]);
+    }
+
+    assertEquals(150, monitor.getActive());
+    assertEquals(200, monitor.getConnects());
+    assertEquals(50, monitor.getDisconnects());
+
+    long deadline = System.currentTimeMillis() + 3000;
+    while (monitor.getSummaryCount() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+    assertEquals("250 events should produce a single summary", 1, monitor.getSummaryCount());
+  }
+
+  public void testReconnectWhileOldSocketIsOpen() {
+    StubWebSocket first = new StubWebSocket(server);
+    StubWebSocket second = new StubWebSocket(server);
+    registry.addByClientId("user1:dev", first);
+    registry.addByClientId("user1:dev", second); // old socket not closed yet
+
+    assertEquals(1, monitor.getActive());
+    assertEquals(1, monitor.getReplacedWhileOpen());
+
+    registry.removeByConnection(first); // its binding is already gone
+    assertEquals(1, monitor.getActive());
+
+    registry.removeByConnection(second);
+    assertEquals(0, monitor.getActive());
+    assertEquals(2, monitor.getDisconnects());
+  }
+}
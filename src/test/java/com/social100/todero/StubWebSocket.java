@@ -0,0 +1,68 @@
+package com.social100.todero;
+
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.WebSocketListener;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.enums.ReadyState;
+import org.java_websocket.framing.Framedata;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-memory WebSocket for tests: records outbound frames instead of writing to a channel.
+ */
+public class StubWebSocket extends WebSocketImpl {
+
+  final List<String> sent = new CopyOnWriteArrayList<>();
+  final List<ByteBuffer> sentBinary = new CopyOnWriteArrayList<>();
+  volatile int closeCode = -1;
+
+  public StubWebSocket(WebSocketListener listener) {
+    super(listener, new Draft_6455());
+  }
+
+  @Override
+  public void send(String text) {
+    sent.add(text);
+  }
+
+  @Override
+  public void send(ByteBuffer bytes) {
+    sentBinary.add(bytes);
+  }
+
+  // batched writes from OutboundQueue
+  @Override
+  public void sendFrame(Collection<Framedata> frames) {
+    for (Framedata f : frames) {
+      if (f.getOpcode() == Opcode.TEXT) sent.add(StandardCharsets.UTF_8.decode(f.getPayloadData()).toString());
+      else sentBinary.add(f.getPayloadData());
+    }
+  }
+
+  @Override
+  public InetSocketAddress getRemoteSocketAddress() {
+    return InetSocketAddress.createUnresolved("stub", 0);
+  }
+
+  @Override
+  public boolean isOpen() {
+    return closeCode < 0;
+  }
+
+  @Override
+  public ReadyState getReadyState() {
+    return closeCode < 0 ? ReadyState.OPEN : ReadyState.CLOSED;
+  }
+
+  @Override
+  public void close(int code, String message) {
+    closeCode = code;
+  }
+}
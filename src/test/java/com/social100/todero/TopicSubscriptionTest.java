@@ -0,0 +1,72 @@
+package com.social100.todero;
+
+import com.social100.todero.cmd.CommandFramework;
+import junit.framework.TestCase;
+
+import java.util.List;
+
+public class TopicSubscriptionTest extends TestCase {
+
+  private WebSocketRelayServer server;
+  private final CommandFramework.CommandCodec codec = new CommandFramework.CommandCodec();
+
+  @Override
+  protected void setUp() {
+    server = new WebSocketRelayServer(0);
+  }
+
+  private StubWebSocket connect() {
+    StubWebSocket conn = new StubWebSocket(server);
+    server.openSession(conn);
+    return conn;
+  }
+
+  private CommandFramework.CommandMessage call(StubWebSocket conn, String name, String... params) {
+    conn.sent.clear();
+    ClientSession.of(conn).getBus().receive(codec.serialize(new CommandFramework.CommandMessage(
+        "r1", name, List.of(params), CommandFramework.CommandMessage.Kind.REQUEST)));
+    return codec.deserialize(conn.sent.get(0));
+  }
+
+  public void testSubscribersReceiveOneSharedFrame() {
+    StubWebSocket a = connect();
+    StubWebSocket b = connect();
+    StubWebSocket c = connect();
+    assertEquals("ACK", call(a, "SUBSCRIBE", "TOPIC:room1").getName());
+    assertEquals("ACK", call(b, "SUBSCRIBE", "TOPIC:room1", "TOPIC:room2").getName());
+    assertEquals("ACK", call(c, "SUBSCRIBE", "TOPIC:room2").getName());
+    a.sent.clear();
+    b.sent.clear();
+    c.sent.clear();
+
+    assertEquals(2, server.sendMessageToTopic("svc:1", "room1", "hi all"));
+
+    assertEquals(1, a.sent.size());
+    assertEquals(1, b.sent.size());
+    assertEquals(0, c.sent.size());
+    assertSame(a.sent.get(0), b.sent.get(0));
+    assertTrue(a.sent.get(0).contains("TOPIC\\:room1"));
+  }
+
+  public void testUnsubscribeAndCloseRemoveSubscriptions() {
+    StubWebSocket a = connect();
+    StubWebSocket b = connect();
+    call(a, "SUBSCRIBE", "TOPIC:room1");
+    call(b, "SUBSCRIBE", "TOPIC:room1", "TOPIC:room2");
+
+    assertEquals("ACK", call(a, "UNSUBSCRIBE", "TOPIC:room1").getName());
+    assertEquals(1, server.topics.subscribersOf("room1").size());
+
+    server.onClose(b, 1000, "bye", true);
+    assertTrue(server.topics.subscribersOf("room1").isEmpty());
+    assertTrue(server.topics.subscribersOf("room2").isEmpty());
+    assertEquals(0, server.topics.size());
+  }
+
+  public void testSubscribeWithoutTopicIsBadRequest() {
+    StubWebSocket a = connect();
+    CommandFramework.CommandMessage res = call(a, "SUBSCRIBE");
+    assertEquals("ERROR", res.getName());
+    assertTrue(res.getParams().get(0).startsWith("BadRequest: "));
+  }
+}
@@ -0,0 +1,77 @@
+package com.social100.todero;
+
+import com.social100.todero.cmd.CommandFramework;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class UserFanOutTest extends TestCase {
+
+  private WebSocketRelayServer server;
+  private final CommandFramework.CommandCodec codec = new CommandFramework.CommandCodec();
+
+  @Override
+  protected void setUp() {
+    server = new WebSocketRelayServer(0);
+  }
+
+  private StubWebSocket connect(String clientId) {
+    StubWebSocket conn = new StubWebSocket(server);
+    server.openSession(conn);
+    server.authClient.webSocketRegistry.addByClientId(clientId, conn);
+    return conn;
+  }
+
+  public void testBareUserIdReachesEveryDeviceWithOneEncodedFrame() {
+    StubWebSocket phone = connect("alice:phone");
+    StubWebSocket laptop = connect("alice:laptop");
+    StubWebSocket other = connect("bob:phone");
+
+    assertTrue(server.sendMessageToClientId("svc:1", "alice", "hello"));
+
+    assertEquals(1, phone.sent.size());
+    assertEquals(1, laptop.sent.size());
+    assertEquals(0, other.sent.size());
+    // serialized once: both sockets got the very same frame
+    assertSame(phone.sent.get(0), laptop.sent.get(0));
+    assertTrue(phone.sent.get(0).contains("MESSAGE\\:hello"));
+  }
+
+  public void testDeviceAddressStillTargetsOneDevice() {
+    StubWebSocket phone = connect("alice:phone");
+    StubWebSocket laptop = connect("alice:laptop");
+
+    assertTrue(server.sendMessageToClientId("svc:1", "alice:laptop", "hi"));
+
+    assertEquals(0, phone.sent.size());
+    assertEquals(1, laptop.sent.size());
+  }
+
+  public void testUserWithoutDevicesIsNotLocal() {
+    assertFalse(server.sendMessageToClientId("svc:1", "carol", "hi"));
+    assertEquals(0, server.sendMessageToUser("svc:1", "carol", "hi"));
+  }
+
+  public void testResponsesCompleteOnlyWhenEveryDeviceAnswers() {
+    StubWebSocket phone = connect("alice:phone");
+    StubWebSocket laptop = connect("alice:laptop");
+    List<CompletableFuture<CommandFramework.CommandMessage>> responses = new ArrayList<>();
+
+    assertTrue(server.sendMessageToClientId("svc:1", "alice", "hello", responses));
+    assertEquals(2, responses.size());
+    CompletableFuture<Void> all = CompletableFuture.allOf(responses.toArray(new CompletableFuture[0]));
+
+    answer(phone);
+    assertFalse(all.isDone());
+    answer(laptop);
+    assertTrue(all.isDone());
+  }
+
+  private void answer(StubWebSocket conn) {
+    CommandFramework.CommandMessage req = codec.deserialize(conn.sent.get(0));
+    ClientSession.of(conn).getBus().receive(codec.serialize(new CommandFramework.CommandMessage(
+        req.getId(), "OK", List.of(), CommandFramework.CommandMessage.Kind.RESPONSE)));
+  }
+}
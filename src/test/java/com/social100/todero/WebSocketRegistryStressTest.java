@@ -0,0 +1,91 @@
+package com.social100.todero;
+
+import junit.framework.TestCase;
+import org.java_websocket.WebSocket;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Connects, re-binds and disconnects from many threads over a small id space (so the same
+ * users, clientIds and connections collide constantly), then checks that the forward, reverse
+ * and device maps describe the same bindings.
+ */
+public class WebSocketRegistryStressTest extends TestCase {
+
+  private static final int THREADS = 8;
+  private static final int OPS_PER_THREAD = 20_000;
+  private static final int USERS = 6;
+  private static final int DEVICES = 4;
+  private static final int CONNECTIONS = 40;
+
+  public void testMapsStayConsistentUnderChurn() throws Exception {
+    WebSocketRelayServer server = new WebSocketRelayServer(0);
+    WebSocketRegistry registry = new WebSocketRegistry();
+    WebSocket[] conns = new WebSocket[CONNECTIONS];
+    for (int i = 0; i < CONNECTIONS; i++) conns[i] = new StubWebSocket(server);
+
+    CountDownLatch start = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(THREADS);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    for (int t = 0; t < THREADS; t++) {
+      new Thread(() -> {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        try {
+          start.await();
+          for (int i = 0; i < OPS_PER_THREAD; i++) {
+            WebSocket conn = conns[rnd.nextInt(CONNECTIONS)];
+            int op = rnd.nextInt(10);
+            if (op < 6) {
+              registry.addByClientId("u" + rnd.nextInt(USERS) + ":d" + rnd.nextInt(DEVICES), conn);
+            } else if (op < 9) {
+              registry.removeByConnection(conn);
+            } else {
+              registry.removeAllDevicesForUser("u" + rnd.nextInt(USERS));
+            }
+            // lookups must never block or throw while writers are busy
+            registry.getClientId(conn);
+            registry.getDeviceIdsForUser("u0").size();
+          }
+        } catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        } finally {
+          done.countDown();
+        }
+      }).start();
+    }
+    start.countDown();
+    done.await();
+    if (failure.get() != null) throw new AssertionError(failure.get());
+
+    assertConsistent(registry, conns);
+  }
+
+  private static void assertConsistent(WebSocketRegistry registry, WebSocket[] conns) {
+    Map<String, WebSocket> forward = registry.snapshotForward();
+    forward.forEach((clientId, conn) ->
+        assertEquals("reverse of " + clientId, clientId, registry.getClientId(conn)));
+
+    int bound = 0;
+    for (WebSocket conn : conns) {
+      String clientId = registry.getClientId(conn);
+      if (clientId == null) continue;
+      bound++;
+      assertSame("forward of " + clientId, conn, forward.get(clientId));
+    }
+    assertEquals(forward.size(), bound);
+
+    Set<String> fromDevices = new HashSet<>();
+    for (int u = 0; u < USERS; u++) {
+      for (String deviceId : registry.getDeviceIdsForUser("u" + u)) {
+        fromDevices.add("u" + u + ":" + deviceId);
+      }
+    }
+    assertEquals(forward.keySet(), fromDevices);
+    assertEquals(forward.keySet(), registry.getAllKnownClientIds());
+  }
+}
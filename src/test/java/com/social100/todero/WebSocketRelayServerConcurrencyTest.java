@@ -0,0 +1,107 @@
+package com.social100.todero;
+
+import com.social100.todero.cmd.CommandFramework;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Inbound frames on different connections must not serialize on a shared lock:
+ * handlers for different connections run at the same time.
+ */
+public class WebSocketRelayServerConcurrencyTest extends TestCase {
+
+  private static final int FRAMES_PER_CONNECTION = 50;
+  private static final long HANDLER_WORK_MS = 2;
+
+  private WebSocketRelayServer server;
+
+  @Override
+  protected void setUp() {
+    server = new WebSocketRelayServer(0);
+    server.webSocketServerCommands.registry.register("WORK", req -> {
+      try {
+        Thread.sleep(HANDLER_WORK_MS); // simulated per-command work (e.g. a Redis round-trip)
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return new CommandFramework.CommandMessage(
+          req.getId(), "DONE", List.of(), CommandFramework.CommandMessage.Kind.RESPONSE);
+    });
+  }
+
+  public void testHandlersOnDifferentConnectionsRunConcurrently() throws Exception {
+    int connections = 8;
+    CountDownLatch arrived = new CountDownLatch(connections);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    // each handler waits for all the others: only possible if none of them is serialized behind another
+    server.webSocketServerCommands.registry.register("MEET", req -> {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      arrived.countDown();
+      boolean met;
+      try {
+        met = arrived.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        met = false;
+      }
+      running.decrementAndGet();
+      return new CommandFramework.CommandMessage(
+          req.getId(), met ? "MET" : "ALONE", List.of(), CommandFramework.CommandMessage.Kind.RESPONSE);
+    });
+
+    List<StubWebSocket> conns = runConnections(connections, 1, "MEET");
+    assertEquals(connections, maxRunning.get());
+    for (StubWebSocket conn : conns) {
+      assertEquals(1, conn.sent.size());
+      assertTrue(conn.sent.get(0), conn.sent.get(0).endsWith(":MET"));
+    }
+  }
+
+  public void testResponsesGoToTheirOwnConnection() throws Exception {
+    List<StubWebSocket> conns = runConnections(4, FRAMES_PER_CONNECTION, "WORK");
+    for (int c = 0; c < conns.size(); c++) {
+      List<String> sent = conns.get(c).sent;
+      assertEquals(FRAMES_PER_CONNECTION, sent.size());
+      for (String frame : sent) {
+        assertTrue(frame, frame.startsWith("RESPONSE:c" + c + "-"));
+      }
+    }
+  }
+
+  private List<StubWebSocket> runConnections(int connections, int frames, String command) throws Exception {
+    List<StubWebSocket> conns = new ArrayList<>();
+    for (int c = 0; c < connections; c++) {
+      StubWebSocket conn = new StubWebSocket(server);
+      server.openSession(conn).activate(() -> true); // skip auth
+      conns.add(conn);
+    }
+
+    CountDownLatch go = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int c = 0; c < connections; c++) {
+      final int idx = c;
+      final StubWebSocket conn = conns.get(c);
+      Thread t = new Thread(() -> {
+        try {
+          go.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 0; i < frames; i++) {
+          server.onMessage(conn, "REQUEST:c" + idx + "-" + i + ":" + command);
+        }
+      });
+      t.start();
+      threads.add(t);
+    }
+    go.countDown();
+    for (Thread t : threads) t.join();
+    return conns;
+  }
+}
@@ -0,0 +1,188 @@
+package com.social100.todero.cmd;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+public class CommandBusTest extends TestCase {
+
+  private final CommandFramework.CommandRegistry registry = new CommandFramework.CommandRegistry();
+  private final List<String> written = new CopyOnWriteArrayList<>();
+  private final Map<String, CompletableFuture<CommandFramework.CommandMessage>> inFlight = new ConcurrentHashMap<>();
+
+  private CommandFramework.CommandBus bus;
+
+  @Override
+  protected void setUp() {
+    registry.register("SYNC", req -> reply(req, "sync"));
+    registry.registerAsync("ASYNC", req -> {
+      CompletableFuture<CommandFramework.CommandMessage> f = new CompletableFuture<>();
+      inFlight.put(req.getId(), f);
+      return f;
+    });
+    bus = new CommandFramework.CommandBus(registry, new CommandFramework.CommandCodec(), written::add, 30, TimeUnit.SECONDS);
+  }
+
+  public void testUnansweredRequestTimesOutAndLeavesNoPendingEntry() throws Exception {
+    CompletableFuture<CommandFramework.CommandMessage> f = bus.request("PING", 150, TimeUnit.MILLISECONDS);
+    assertEquals(1, bus.pendingCount());
+    try {
+      f.get(3, TimeUnit.SECONDS);
+      fail("expected a timeout");
+    } catch (java.util.concurrent.ExecutionException e) {
+      assertTrue(e.getCause() instanceof java.util.concurrent.TimeoutException);
+    }
+    assertEquals(0, bus.pendingCount());
+  }
+
+  public void testResponseCancelsTheTimeout() {
+    CompletableFuture<CommandFramework.CommandMessage> f = bus.request("PING");
+    String id = bus.getCodec().deserialize(written.get(0)).getId();
+    bus.receive("RESPONSE:" + id + ":PONG");
+    assertTrue(f.isDone());
+    assertEquals(0, bus.pendingCount());
+  }
+
+  public void testPendingCapFailsFastWithoutWriting() {
+    bus.setMaxPending(2);
+    bus.request("PING");
+    bus.request("PING");
+    CompletableFuture<CommandFramework.CommandMessage> third = bus.request("PING");
+    assertTrue(third.isCompletedExceptionally());
+    assertEquals(2, written.size());
+  }
+
+  public void testErrorFrameFailsThePendingRequest() {
+    CompletableFuture<CommandFramework.CommandMessage> f = bus.request("PING");
+    String id = bus.getCodec().deserialize(written.get(0)).getId();
+    bus.receive("ERROR:" + id + ":ERROR:rejected");
+    assertTrue(f.isCompletedExceptionally());
+    assertEquals(0, bus.pendingCount());
+    try {
+      f.join();
+      fail("expected the ERROR to fail the future");
+    } catch (java.util.concurrent.CompletionException e) {
+      assertTrue(e.getCause() instanceof CommandFramework.CommandErrorException);
+      assertEquals("rejected", e.getCause().getMessage());
+    }
+  }
+
+  public void testOneWaySendIsNotTracked() {
+    bus.send("PING", "a");
+    bus.sendKeyValues("SEND_MESSAGE", "MESSAGE", "hi");
+    assertEquals(2, written.size());
+    assertEquals(0, bus.pendingCount());
+  }
+
+  public void testDefaultIdsAreShortAndUniquePerBus() {
+    java.util.Set<String> ids = new java.util.HashSet<>();
+    for (int i = 0; i < 1000; i++) {
+      String id = bus.getCodec().deserialize(sendAndCapture()).getId();
+      assertTrue(id, id.length() <= 8);
+      assertTrue(ids.add(id));
+    }
+  }
+
+  public void testIdGeneratorIsPluggable() {
+    bus.setIdGenerator(() -> "fixed");
+    bus.send("PING");
+    assertEquals("REQUEST:fixed:PING", written.get(0));
+  }
+
+  private String sendAndCapture() {
+    written.clear();
+    bus.send("PING");
+    return written.get(0);
+  }
+
+  public void testSyncHandlerStillWritesInline() {
+    bus.receive("REQUEST:1:SYNC");
+    assertEquals(List.of("RESPONSE:1:DONE:sync"), written);
+  }
+
+  public void testRequestOrderHoldsBackLaterResponses() {
+    bus.receive("REQUEST:1:ASYNC");
+    bus.receive("REQUEST:2:SYNC");
+    assertTrue(written.isEmpty());
+
+    complete("1", "async");
+    assertEquals(List.of("RESPONSE:1:DONE:async", "RESPONSE:2:DONE:sync"), written);
+  }
+
+  public void testCompletionOrderWritesImmediately() {
+    bus.setResponseOrder(CommandFramework.ResponseOrder.COMPLETION);
+    bus.receive("REQUEST:1:ASYNC");
+    bus.receive("REQUEST:2:SYNC");
+    assertEquals(List.of("RESPONSE:2:DONE:sync"), written);
+
+    complete("1", "async");
+    assertEquals(List.of("RESPONSE:2:DONE:sync", "RESPONSE:1:DONE:async"), written);
+  }
+
+  public void testFailedStageBecomesErrorResponse() {
+    bus.receive("REQUEST:1:ASYNC");
+    inFlight.get("1").completeExceptionally(new IllegalStateException("boom"));
+    assertEquals(List.of("ERROR:1:ERROR:IllegalStateException\\: boom"), written);
+  }
+
+  public void testFailedWriteDoesNotBlockLaterResponses() {
+    List<String> out = new java.util.ArrayList<>();
+    bus.setOutboundWriter(frame -> {
+      if (out.isEmpty() && frame.startsWith("RESPONSE:1:")) {
+        out.add("<failed>");
+        throw new IllegalStateException("not connected");
+      }
+      out.add(frame);
+    });
+    bus.receive("REQUEST:1:SYNC");
+    bus.receive("REQUEST:2:SYNC");
+    assertEquals(List.of("<failed>", "RESPONSE:2:DONE:sync"), out);
+  }
+
+  public void testExecutorDispatchKeepsPerConnectionOrder() throws Exception {
+    java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(4);
+    try {
+      bus.setHandlerExecutor(new SerialExecutor(pool));
+      for (int i = 0; i < 50; i++) bus.receive("REQUEST:" + i + ":SYNC");
+      long deadline = System.currentTimeMillis() + 3000;
+      while (written.size() < 50 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+      assertEquals(50, written.size());
+      for (int i = 0; i < 50; i++) assertEquals("RESPONSE:" + i + ":DONE:sync", written.get(i));
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  public void testInFlightLimitCoversAsyncHandlersUntilTheyAnswer() {
+    java.util.concurrent.Semaphore global = new java.util.concurrent.Semaphore(10);
+    bus.setHandlerExecutor(new SerialExecutor(Runnable::run), 2, global);
+    bus.receive("REQUEST:1:ASYNC");
+    bus.receive("REQUEST:2:ASYNC");
+    bus.receive("REQUEST:3:ASYNC"); // handlers 1 and 2 returned, but haven't answered yet
+    assertEquals(8, global.availablePermits());
+    assertFalse(inFlight.containsKey("3"));
+
+    complete("1", "one");
+    bus.receive("REQUEST:4:ASYNC"); // 1 answered: room again
+    assertTrue(inFlight.containsKey("4"));
+    complete("2", "two");
+    complete("4", "four");
+
+    assertEquals(List.of("RESPONSE:1:DONE:one", "RESPONSE:2:DONE:two",
+        "ERROR:3:ERROR:Busy\\: connection in-flight limit reached (2)", "RESPONSE:4:DONE:four"), written);
+    assertEquals(10, global.availablePermits());
+  }
+
+  private void complete(String id, String text) {
+    inFlight.get(id).complete(reply(new CommandFramework.CommandMessage(id, "ASYNC", List.of(), null), text));
+  }
+
+  private static CommandFramework.CommandMessage reply(CommandFramework.CommandMessage req, String text) {
+    return new CommandFramework.CommandMessage(req.getId(), "DONE", List.of(text), CommandFramework.CommandMessage.Kind.RESPONSE);
+  }
+}
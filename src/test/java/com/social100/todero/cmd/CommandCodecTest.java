@@ -0,0 +1,165 @@
+package com.social100.todero.cmd;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The codec must stay byte-for-byte compatible with the original StringBuilder/replace
+ * implementation, which is kept here as the reference.
+ */
+public class CommandCodecTest extends TestCase {
+
+  private final CommandFramework.CommandCodec codec = new CommandFramework.CommandCodec();
+
+  public void testPlainFrameRoundTrip() {
+    CommandFramework.CommandMessage msg = codec.deserialize("REQUEST:42:SEND_MESSAGE:FROM:a:TO:b");
+    assertEquals(CommandFramework.CommandMessage.Kind.REQUEST, msg.getKind());
+    assertEquals("42", msg.getId());
+    assertEquals("SEND_MESSAGE", msg.getName());
+    assertEquals(List.of("FROM", "a", "TO", "b"), msg.getParams());
+  }
+
+  public void testEscapedParams() {
+    CommandFramework.CommandMessage msg = codec.deserialize("REQUEST:1:X:MESSAGE\\:a\\\\b\\n:tail\\");
+    assertEquals(List.of("MESSAGE:a\\b\\n", "tail\\"), msg.getParams());
+  }
+
+  public void testTooFewPartsIsRejected() {
+    try {
+      codec.deserialize("REQUEST:1");
+      fail();
+    } catch (IllegalArgumentException expected) {
+      assertTrue(expected.getMessage().startsWith("Invalid message"));
+    }
+  }
+
+  public void testKeyValueEncoderMatchesSerialize() {
+    String viaParams = codec.serialize(new CommandFramework.CommandMessage("id", "SEND_MESSAGE",
+        List.of(CmdArgs.sendMessageArgs("u:1", "u:2", "hi: \\there")), CommandFramework.CommandMessage.Kind.REQUEST));
+    String direct = codec.serializeKeyValues(CommandFramework.CommandMessage.Kind.REQUEST, "id", "SEND_MESSAGE",
+        CmdArgs.sendMessageKeyValues("u:1", "u:2", "hi: \\there"));
+    assertEquals(viaParams, direct);
+
+    String withNull = codec.serializeKeyValues(CommandFramework.CommandMessage.Kind.REQUEST, "id", "SEND_MESSAGE",
+        CmdArgs.sendMessageKeyValues(null, "u:2", "x"));
+    assertEquals("REQUEST:id:SEND_MESSAGE:TO\\:u\\:2:MESSAGE\\:x", withNull);
+  }
+
+  public void testMatchesLegacyCodecOnRandomFrames() {
+    Random rnd = new Random(7);
+    char[] alphabet = {'a', 'b', ':', '\\', 'n', ' ', 'é', '0'};
+    for (int n = 0; n < 20_000; n++) {
+      // serialize: random params
+      List<String> params = new ArrayList<>();
+      for (int p = rnd.nextInt(5); p > 0; p--) params.add(randomString(rnd, alphabet, 12));
+      CommandFramework.CommandMessage msg = new CommandFramework.CommandMessage(
+          "id" + n, "NAME", params, CommandFramework.CommandMessage.Kind.REQUEST);
+      assertEquals(Legacy.serialize(msg), codec.serialize(msg));
+
+      // deserialize: random raw tails after a valid kind
+      String raw = "RESPONSE:" + randomString(rnd, alphabet, 30);
+      CommandFramework.CommandMessage expected;
+      try {
+        expected = Legacy.deserialize(raw);
+      } catch (IllegalArgumentException e) {
+        try {
+          codec.deserialize(raw);
+          fail("expected failure for " + raw);
+        } catch (IllegalArgumentException ignored) {
+        }
+        continue;
+      }
+      CommandFramework.CommandMessage actual = codec.deserialize(raw);
+      assertEquals(raw, expected.getKind(), actual.getKind());
+      assertEquals(raw, expected.getId(), actual.getId());
+      assertEquals(raw, expected.getName(), actual.getName());
+      assertEquals(raw, expected.getParams(), actual.getParams());
+    }
+  }
+
+  public void testBinaryRoundTrip() {
+    CommandFramework.BinaryCommandCodec binary = new CommandFramework.BinaryCommandCodec();
+    String big = "x".repeat(300); // length needs a two-byte varint
+    List<String> params = List.of("", "a:b\\c", "héllo 😀", big, "bad\uD800surrogate");
+    CommandFramework.CommandMessage decoded = binary.decode(binary.encode(new CommandFramework.CommandMessage(
+        "id-1", "NAME", params, CommandFramework.CommandMessage.Kind.ERROR)));
+
+    assertEquals(CommandFramework.CommandMessage.Kind.ERROR, decoded.getKind());
+    assertEquals("id-1", decoded.getId());
+    assertEquals("NAME", decoded.getName());
+    assertEquals(List.of("", "a:b\\c", "héllo 😀", big, "bad?surrogate"), decoded.getParams());
+  }
+
+  public void testBinaryKeyValuesMatchPlainParams() {
+    CommandFramework.BinaryCommandCodec binary = new CommandFramework.BinaryCommandCodec();
+    CommandFramework.CommandMessage decoded = binary.decode(binary.encodeKeyValues(
+        CommandFramework.CommandMessage.Kind.REQUEST, "1", "SEND_MESSAGE", CmdArgs.sendMessageKeyValues(null, "u:2", "hï")));
+    assertEquals(List.of("TO:u:2", "MESSAGE:hï"), decoded.getParams());
+  }
+
+  public void testTruncatedBinaryFrameIsRejected() {
+    CommandFramework.BinaryCommandCodec binary = new CommandFramework.BinaryCommandCodec();
+    java.nio.ByteBuffer frame = binary.encode(new CommandFramework.CommandMessage(
+        "id", "NAME", List.of("param"), CommandFramework.CommandMessage.Kind.REQUEST));
+    frame.limit(frame.limit() - 2);
+    try {
+      binary.decode(frame);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  private static String randomString(Random rnd, char[] alphabet, int maxLen) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = rnd.nextInt(maxLen); i > 0; i--) sb.append(alphabet[rnd.nextInt(alphabet.length)]);
+    return sb.toString();
+  }
+
+  // original implementation, verbatim
+  private static final class Legacy {
+    static String serialize(CommandFramework.CommandMessage msg) {
+      StringBuilder sb = new StringBuilder();
+      sb.append(msg.getKind().name()).append(":").append(msg.getId()).append(":").append(msg.getName());
+      for (String p : msg.getParams()) sb.append(":").append(p.replace("\\", "\\\\").replace(":", "\\:"));
+      return sb.toString();
+    }
+
+    static CommandFramework.CommandMessage deserialize(String raw) {
+      List<String> parts = new ArrayList<>();
+      StringBuilder cur = new StringBuilder();
+      boolean escaping = false;
+      for (int i = 0; i < raw.length(); i++) {
+        char c = raw.charAt(i);
+        if (escaping) { cur.append(c); escaping = false; }
+        else if (c == '\\') { escaping = true; cur.append(c); }
+        else if (c == ':') { parts.add(cur.toString()); cur.setLength(0); }
+        else cur.append(c);
+      }
+      if (escaping) cur.append('\\');
+      parts.add(cur.toString());
+      if (parts.size() < 3) throw new IllegalArgumentException("Invalid message: " + raw);
+      List<String> params = new ArrayList<>();
+      for (int i = 3; i < parts.size(); i++) params.add(unescape(parts.get(i)));
+      return new CommandFramework.CommandMessage(parts.get(1), parts.get(2), params,
+          CommandFramework.CommandMessage.Kind.valueOf(parts.get(0)));
+    }
+
+    static String unescape(String s) {
+      StringBuilder out = new StringBuilder();
+      boolean escaping = false;
+      for (int i = 0; i < s.length(); i++) {
+        char c = s.charAt(i);
+        if (escaping) {
+          if (c == ':' || c == '\\') out.append(c); else out.append('\\').append(c);
+          escaping = false;
+        } else if (c == '\\') escaping = true;
+        else out.append(c);
+      }
+      if (escaping) out.append('\\');
+      return out.toString();
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package com.social100.todero.cmd;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+public class ParamParserTest extends TestCase {
+
+  private final ParamParser.ParamSpec spec = ParamParser.ParamSpec.builder()
+      .addKey(ParamParser.KeySpec.builder("FROM").required(true).validator(v -> !v.trim().isEmpty()))
+      .addKey(ParamParser.KeySpec.builder("TO").required(true).alias("dest"))
+      .addKey(ParamParser.KeySpec.builder("MESSAGE").required(true).allowEmpty(true))
+      .addKey(ParamParser.KeySpec.builder("TAG").multi(true))
+      .addKey(ParamParser.KeySpec.builder("PRIORITY").required(true))
+      .defaultValue("priority", "normal")
+      .build();
+
+  public void testParsesCaseInsensitiveKeysAliasesAndDefaults() {
+    ParamParser.ParsedParams parsed = ParamParser.parse(
+        List.of(" from :a", "Dest:b:c", "message:", "tag:x", "TAG:y"), spec);
+    assertEquals("a", parsed.require("FROM"));
+    assertEquals("b:c", parsed.get("to"));
+    assertEquals("", parsed.get("MESSAGE"));
+    assertEquals(List.of("x", "y"), parsed.getAll("tag"));
+    assertEquals("y", parsed.get("TAG"));
+    assertEquals("normal", parsed.get("PRIORITY"));
+    assertTrue(parsed.has("priority"));
+    assertFalse(parsed.has("unknown"));
+  }
+
+  public void testValidationErrorsAreUnchanged() {
+    assertError("Malformed parameter: ':x'. Expected KEY:VALUE", List.of(":x"));
+    assertError("Unknown parameter key: 'NOPE'", List.of(" NOPE :x"));
+    assertError("Empty value not allowed for key: TO", List.of("TO:"));
+    assertError("Invalid value for key 'FROM':  ", List.of("FROM: "));
+    assertError("Duplicate key not allowed: TO", List.of("TO:a", "dest:b"));
+    assertError("Missing required key: FROM", List.of("TO:a"));
+    assertError("Missing required key: MESSAGE", List.of("FROM:a", "TO:b"));
+  }
+
+  public void testUnknownKeysWhenAllowed() {
+    ParamParser.ParamSpec lenient = ParamParser.ParamSpec.builder()
+        .addKey(ParamParser.KeySpec.builder("A"))
+        .allowUnknownKeys(true)
+        .build();
+    ParamParser.ParsedParams parsed = ParamParser.parse(List.of("extra:1", "EXTRA:2", "a:3"), lenient);
+    assertEquals("2", parsed.get("Extra"));
+    assertEquals(List.of("1", "2"), parsed.getAll("extra"));
+    assertEquals("3", parsed.get("a"));
+  }
+
+  private void assertError(String message, List<String> params) {
+    try {
+      ParamParser.parse(params, spec);
+      fail("expected: " + message);
+    } catch (IllegalArgumentException e) {
+      assertEquals(message, e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package com.social100.todero.log;
+
+import junit.framework.TestCase;
+
+public class LogTest extends TestCase {
+
+  public void testFormatSubstitutesPlaceholdersInOrder() {
+    assertEquals("a=1 b=two", Log.format("a={} b={}", new Object[]{1, "two"}));
+    assertEquals("a=1 b={}", Log.format("a={} b={}", new Object[]{1}));
+    assertEquals("no args", Log.format("no args", null));
+    assertEquals("x=null", Log.format("x={}", new Object[]{null}));
+  }
+
+  public void testDisabledLevelDoesNothing() {
+    Log log = Log.get("LogTest");
+    assertFalse(log.isEnabled(Log.Level.OFF));
+    assertTrue(log.isEnabled(Log.Level.ERROR));
+  }
+
+  public void testSiteCapsLinesPerSecond() {
+    Log log = Log.get("LogTest");
+    Log.Site site = log.site(Log.Level.ERROR, 2);
+    long before = Log.droppedEvents();
+    for (int i = 0; i < 1000; i++) {
+      site.log("burst {}", i);
+    }
+    Log.flush();
+    // suppressed lines never reach the ring, so they cannot overflow it either
+    assertEquals(before, Log.droppedEvents());
+  }
+}
@@ -0,0 +1,61 @@
+package com.social100.todero.metrics;
+
+import junit.framework.TestCase;
+
+public class MetricsRegistryTest extends TestCase {
+
+  public void testHistogramQuantilesWithinBucketError() {
+    Histogram h = new MetricsRegistry().histogram("latency_us", "test");
+    for (long v = 1; v <= 100_000; v++) h.record(v);
+
+    assertEquals(100_000, h.count());
+    assertWithin(50_000, h.quantile(0.5));
+    assertWithin(99_000, h.quantile(0.99));
+    assertEquals(0, new MetricsRegistry().histogram("empty", "test").quantile(0.5));
+  }
+
+  public void testBucketBoundsCoverEveryValue() {
+    long[] samples = {0, 1, 15, 16, 17, 1_000, 1L << 40, Long.MAX_VALUE};
+    for (long v : samples) {
+      int idx = Histogram.indexOf(v);
+      assertTrue(v + " above its bucket", v <= Histogram.highestValueIn(idx));
+      if (idx > 0) assertTrue(v + " below its bucket", v > Histogram.highestValueIn(idx - 1));
+    }
+  }
+
+  public void testPrometheusText() {
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.counter("sends_total", "Sends").add(3);
+    registry.gauge("connections", "Open connections", () -> 7);
+    registry.histogram("batch_size", "Batch").record(16);
+
+    String text = registry.toPrometheusText();
+    assertTrue(text, text.contains("# TYPE sends_total counter\nsends_total 3\n"));
+    assertTrue(text, text.contains("# TYPE connections gauge\nconnections 7\n"));
+    assertTrue(text, text.contains("# TYPE batch_size summary\n"));
+    assertTrue(text, text.contains("batch_size{quantile=\"0.99\"} 16\n"));
+    assertTrue(text, text.contains("batch_size_count 1\n"));
+  }
+
+  public void testGaugeNameCannotReuseAnotherType() {
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.counter("sends_total", "Sends");
+    try {
+      registry.gauge("sends_total", "Sends", () -> 1);
+      fail("expected the name clash to be rejected");
+    } catch (IllegalArgumentException expected) {
+    }
+    registry.gauge("connections", "Open connections", () -> 1);
+    registry.gauge("connections", "Open connections", () -> 2); // same type: replaces
+    assertTrue(registry.toPrometheusText().contains("connections 2\n"));
+    try {
+      registry.counter("connections", "Open connections");
+      fail("expected the name clash to be rejected");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue("expected ~" + expected + " but was " + actual, Math.abs(actual - expected) <= expected * 0.07);
+  }
+}